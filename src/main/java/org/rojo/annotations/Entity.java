@@ -15,4 +15,20 @@ public @interface Entity
   boolean idCache() default true;
 
   String table() default "";
+
+  /**
+   * expected number of ids for the local bloom filter,0 means no filter (the
+   * filter needs idCache and is used only by a repository set as the sole
+   * writer of the table,Rojo.setSoleWriter or rojo.sole.writer)
+   *
+   * @return
+   */
+  long bloom() default 0;
+
+  /**
+   * false positive probability of the bloom filter
+   *
+   * @return
+   */
+  double bloomFpp() default 0.01;
 }
@@ -19,4 +19,11 @@ public @interface Value
 	boolean bigFirst() default false;
 
 	long size() default 0;
+
+	/**
+	 * a Set property kept in insertion order: stored as a redis list (the
+	 * values already in the set are not appended),else as a redis set whose
+	 * members come back in no order
+	 */
+	boolean ordered() default false;
 }
@@ -0,0 +1,22 @@
+/**
+ * backend
+ */
+package org.rojo.repository;
+
+/**
+ * Where the facade of a thread comes from (a pool,the nodes of a
+ * cluster...). A facade is opened for an operation of a thread and closed
+ * when the thread is done with it (see Rojo.store and Rojo.release).
+ *
+ * @author beykery
+ */
+interface Backend
+{
+
+  /**
+   * a facade for the current thread
+   *
+   * @return
+   */
+  RedisFacade open();
+}
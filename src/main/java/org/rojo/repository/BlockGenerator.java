@@ -0,0 +1,298 @@
+/**
+ * block generator
+ */
+package org.rojo.repository;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+
+/**
+ * Hi/lo generator: a block of ids is reserved with one INCRBY on the counter
+ * of DefaultGenerator (table:::id) and handed out locally. The ids of a block
+ * are taken with a lock free getAndIncrement,only the switch to the next
+ * block is locked. With a pool (or the backend of the first thread safe Rojo
+ * for the registered blockGenerator) the next block is fetched in background
+ * when the current one runs down to the low water mark,without them blocks
+ * are fetched on the caller's connection when needed. A prefetch not done
+ * when the block runs out is waited at most 50 ms,then the block is fetched
+ * on the caller's connection (the callers may hold every connection of the
+ * pool). Ids of a block not used before shutdown are lost (gaps,never
+ * duplicates).
+ *
+ * @author beykery
+ */
+public class BlockGenerator extends IdGenerator
+{
+
+  private static final Logger LOG = Logger.getLogger(BlockGenerator.class.getName());
+  private static final long PREFETCH_WAIT = 50;//ms a refill waits for the prefetch
+  private final int blockSize;
+  private final int lowWater;
+  private final JedisPool pool;
+  private volatile Backend backend;//connections of the prefetch without pool
+  private final ExecutorService prefetcher;
+  private final ConcurrentHashMap<String, Blocks> tables = new ConcurrentHashMap<>();
+
+  /**
+   * blocks fetched on the caller's connection
+   *
+   * @param blockSize
+   */
+  public BlockGenerator(int blockSize)
+  {
+    this(blockSize, 0, null);
+  }
+
+  /**
+   * prefetch when a quarter of the block is left
+   *
+   * @param blockSize
+   * @param pool
+   */
+  public BlockGenerator(int blockSize, JedisPool pool)
+  {
+    this(blockSize, blockSize / 4, pool);
+  }
+
+  /**
+   *
+   * @param blockSize ids per block
+   * @param lowWater ids left in the block when the next one is prefetched
+   * @param pool connections of the prefetch (null,no prefetch unless a
+   * backend is given later)
+   */
+  public BlockGenerator(int blockSize, int lowWater, JedisPool pool)
+  {
+    if (blockSize <= 0)
+    {
+      throw new IllegalArgumentException("blockSize must be > 0");
+    }
+    if (lowWater < 0 || lowWater >= blockSize)
+    {
+      throw new IllegalArgumentException("lowWater must be in [0,blockSize)");
+    }
+    this.blockSize = blockSize;
+    this.lowWater = lowWater;
+    this.pool = pool;
+    this.prefetcher = lowWater == 0 ? null : Executors.newSingleThreadExecutor(new ThreadFactory()
+    {
+      @Override
+      public Thread newThread(Runnable r)
+      {
+        Thread t = new Thread(r, "rojo-id-prefetch");
+        t.setDaemon(true);
+        return t;
+      }
+    });
+  }
+
+  @Override
+  public String id(Class claz, String table, Jedis je)
+  {
+    Blocks bs = blocks(table);
+    for (;;)
+    {
+      Block b = bs.current;
+      if (b != null)
+      {
+        long v = b.next.getAndIncrement();
+        if (v <= b.last)
+        {
+          if (prefetcher != null && b.last - v == lowWater && (pool != null || backend != null))//only one caller sees it
+          {
+            prefetch(bs, table);
+          }
+          return String.valueOf(v);
+        }
+      }
+      refill(bs, b, table, je);
+    }
+  }
+
+  @Override
+  public String[] ids(Class claz, String table, Jedis je, int n)
+  {
+    if (n < blockSize)
+    {
+      return super.ids(claz, table, je, n);
+    }
+    String[] ids = new String[n];//a block of its own
+    long first = fetch(table, je, n) - n + 1;
+    for (int i = 0; i < n; i++)
+    {
+      ids[i] = String.valueOf(first + i);
+    }
+    return ids;
+  }
+
+  public int getBlockSize()
+  {
+    return blockSize;
+  }
+
+  public int getLowWater()
+  {
+    return lowWater;
+  }
+
+  /**
+   * prefetch on the connections of backend (if no pool or backend yet)
+   *
+   * @param backend
+   */
+  synchronized void prefetchFrom(Backend backend)
+  {
+    if (pool == null && this.backend == null)
+    {
+      this.backend = backend;
+    }
+  }
+
+  private Blocks blocks(String table)
+  {
+    Blocks bs = tables.get(table);
+    if (bs == null)
+    {
+      Blocks n = new Blocks();
+      bs = tables.putIfAbsent(table, n);
+      if (bs == null)
+      {
+        bs = n;
+      }
+    }
+    return bs;
+  }
+
+  /**
+   * switch to the next block unless another caller did
+   *
+   * @param bs
+   * @param exhausted
+   * @param table
+   * @param je
+   */
+  private void refill(Blocks bs, Block exhausted, String table, Jedis je)
+  {
+    synchronized (bs)
+    {
+      if (bs.current != exhausted)
+      {
+        return;
+      }
+      long last = -1;
+      Future<Long> f = bs.prefetch;
+      bs.prefetch = null;
+      if (f != null)
+      {
+        try
+        {
+          last = f.get(PREFETCH_WAIT, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e)
+        {
+          f.cancel(false);//its block is lost if it runs anyway
+        } catch (Exception e)
+        {
+          LOG.log(Level.WARNING, "id prefetch failed,fetch again :{0}", e.getMessage());
+        }
+      }
+      if (last < 0)
+      {
+        last = fetch(table, je, blockSize);
+      }
+      bs.current = new Block(last - blockSize + 1, last);
+    }
+  }
+
+  /**
+   * fetch the next block in background
+   *
+   * @param bs
+   * @param table
+   */
+  private void prefetch(final Blocks bs, final String table)
+  {
+    synchronized (bs)
+    {
+      if (bs.prefetch == null)
+      {
+        bs.prefetch = prefetcher.submit(new Callable<Long>()
+        {
+          @Override
+          public Long call() throws Exception
+          {
+            return fetch(table, null, blockSize);
+          }
+        });
+      }
+    }
+  }
+
+  /**
+   * reserve n ids
+   *
+   * @param table
+   * @param je the caller's connection (null for a prefetch)
+   * @param n
+   * @return the last id reserved
+   */
+  private long fetch(String table, Jedis je, int n)
+  {
+    String key = table + ":::id";
+    if (je != null)
+    {
+      return je.incrBy(key, n);
+    }
+    if (pool != null)
+    {
+      try (Jedis j = pool.getResource())
+      {
+        return j.incrBy(key, n);
+      }
+    }
+    RedisFacade facade = backend.open();
+    try
+    {
+      return facade.jedis(key).incrBy(key, n);
+    } finally
+    {
+      facade.close();
+    }
+  }
+
+  /**
+   * the ids of a table
+   */
+  private static class Blocks
+  {
+
+    volatile Block current;
+    Future<Long> prefetch;//guarded by this
+  }
+
+  /**
+   * a reserved range
+   */
+  private static class Block
+  {
+
+    final AtomicLong next;
+    final long last;
+
+    Block(long first, long last)
+    {
+      this.next = new AtomicLong(first);
+      this.last = last;
+    }
+  }
+}
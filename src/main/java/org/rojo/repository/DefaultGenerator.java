@@ -22,4 +22,19 @@ public class DefaultGenerator extends IdGenerator
     return je.incr(table + ":::id").toString();
   }
 
+  @Override
+  public String[] ids(Class claz, String table, Jedis je, int n)
+  {
+    String[] ids = new String[n];
+    if (n > 0)
+    {
+      long first = je.incrBy(table + ":::id", n) - n + 1;
+      for (int i = 0; i < n; i++)
+      {
+        ids[i] = String.valueOf(first + i);
+      }
+    }
+    return ids;
+  }
+
 }
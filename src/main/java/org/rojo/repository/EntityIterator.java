@@ -0,0 +1,117 @@
+/**
+ * lazy entity iterator
+ */
+package org.rojo.repository;
+
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Queue;
+
+/**
+ * Iterate the entities of a zset lazily. Ids are pulled chunk by chunk and
+ * every chunk is loaded with one batch (see Rojo.getAll), so only one chunk of
+ * entities is held in memory. The ids are paged by offset (or from the last
+ * score seen), entities added or removed while iterating may be skipped or
+ * seen twice.
+ *
+ * @author beykery
+ * @param <T>
+ */
+abstract class EntityIterator<T> implements Iterator<T>
+{
+
+  private final Rojo rojo;
+  private final Class<T> claz;
+  private final int chunk;
+  private final Queue<T> buffer;
+  private long offset;
+  private boolean exhausted;
+
+  EntityIterator(Rojo rojo, Class<T> claz, int chunk)
+  {
+    if (chunk <= 0)
+    {
+      throw new IllegalArgumentException("chunk must be > 0");
+    }
+    this.rojo = rojo;
+    this.claz = claz;
+    this.chunk = chunk;
+    this.buffer = new ArrayDeque<>(chunk);
+  }
+
+  /**
+   * ids of a page
+   *
+   * @param offset
+   * @param count
+   * @return at most count ids,less than count means the end
+   */
+  abstract Collection<String> page(long offset, int count);
+
+  @Override
+  public boolean hasNext()
+  {
+    while (buffer.isEmpty() && !exhausted)
+    {
+      Collection<String> ids = page(offset, chunk);
+      offset += ids.size();
+      exhausted = ids.size() < chunk;
+      if (!ids.isEmpty())
+      {
+        for (T entity : rojo.getAll(claz, ids))
+        {
+          if (entity != null)
+          {
+            buffer.add(entity);
+          }
+        }
+      }
+    }
+    return !buffer.isEmpty();
+  }
+
+  @Override
+  public T next()
+  {
+    if (!hasNext())
+    {
+      throw new NoSuchElementException();
+    }
+    return buffer.poll();
+  }
+
+  @Override
+  public void remove()
+  {
+    throw new UnsupportedOperationException("remove");
+  }
+
+  /**
+   * the ranks of a page
+   *
+   * @param start first rank (>=0)
+   * @param end last rank,-1 means the end of zset
+   * @param offset
+   * @param count
+   * @return {from,to} or null if the page is out of range
+   */
+  static long[] rankPage(long start, long end, long offset, int count)
+  {
+    long from = start + offset;
+    long to = from + count - 1;
+    if (end >= 0)
+    {
+      if (from > end)
+      {
+        return null;
+      }
+      to = Math.min(to, end);
+    }
+    return new long[]
+    {
+      from, to
+    };
+  }
+}
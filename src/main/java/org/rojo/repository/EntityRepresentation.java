@@ -9,6 +9,7 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import org.rojo.annotations.Entity;
 import org.rojo.annotations.Id;
 import org.rojo.annotations.Index;
@@ -28,6 +29,8 @@ public class EntityRepresentation
 
   private boolean cacheable;
   private boolean idCache;
+  private final long bloom;
+  private final double bloomFpp;
   private String table;
   private Field id;
   private final Field[] fields;
@@ -41,24 +44,32 @@ public class EntityRepresentation
 
   static
   {
-    knownEntities = new HashMap<Class<? extends Object>, EntityRepresentation>();
+    knownEntities = new ConcurrentHashMap<Class<? extends Object>, EntityRepresentation>();
     tableEntities = new HashMap<String, EntityRepresentation>();
   }
 
   public static EntityRepresentation forClass(Class<? extends Object> entityClass)
   {
-    if (knownEntities.containsKey(entityClass))
+    EntityRepresentation known = knownEntities.get(entityClass);
+    if (known != null)
     {
-      return knownEntities.get(entityClass);
+      return known;
     }
-    EntityRepresentation entityRepresentation = new EntityRepresentation(entityClass);
-    knownEntities.put(entityClass, entityRepresentation);
-    EntityRepresentation old = tableEntities.put(entityRepresentation.table, entityRepresentation);
-    if (old != null)
+    synchronized (tableEntities)
     {
-      throw new RojoException("duplicate table:" + entityRepresentation.table);
+      if (knownEntities.containsKey(entityClass))
+      {
+        return knownEntities.get(entityClass);
+      }
+      EntityRepresentation entityRepresentation = new EntityRepresentation(entityClass);
+      EntityRepresentation old = tableEntities.put(entityRepresentation.table, entityRepresentation);
+      if (old != null)
+      {
+        throw new RojoException("duplicate table:" + entityRepresentation.table);
+      }
+      knownEntities.put(entityClass, entityRepresentation);
+      return entityRepresentation;
     }
-    return entityRepresentation;
   }
 
   /**
@@ -71,6 +82,12 @@ public class EntityRepresentation
     verifyEntityAnnotation(entityClass);
     cacheable = entityClass.getAnnotation(Entity.class).cache();
     idCache = entityClass.getAnnotation(Entity.class).idCache();
+    bloom = entityClass.getAnnotation(Entity.class).bloom();
+    bloomFpp = entityClass.getAnnotation(Entity.class).bloomFpp();
+    if (bloom > 0 && !idCache)
+    {
+      error(entityClass, "bloom filter needs idCache!");
+    }
     table = entityClass.getAnnotation(Entity.class).table();
     if (table.isEmpty())
     {
@@ -274,6 +291,21 @@ public class EntityRepresentation
     return idCache;
   }
 
+  /**
+   * expected ids of the bloom filter (0 means no filter)
+   *
+   * @return
+   */
+  public long getBloom()
+  {
+    return bloom;
+  }
+
+  public double getBloomFpp()
+  {
+    return bloomFpp;
+  }
+
   Object readProperty(Object entity, Field f)
   {
     try
@@ -47,4 +47,23 @@ public abstract class IdGenerator
    */
   public abstract String id(Class claz, String table, Jedis je);
 
+  /**
+   * generate n ids (one by one unless the generator can reserve a block)
+   *
+   * @param claz
+   * @param table
+   * @param je
+   * @param n
+   * @return
+   */
+  public String[] ids(Class claz, String table, Jedis je, int n)
+  {
+    String[] ids = new String[n];
+    for (int i = 0; i < n; i++)
+    {
+      ids[i] = id(claz, table, je);
+    }
+    return ids;
+  }
+
 }
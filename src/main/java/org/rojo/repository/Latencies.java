@@ -0,0 +1,67 @@
+/**
+ * latencies
+ */
+package org.rojo.repository;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * The last read latencies (a ring of samples) and a percentile of them,the
+ * percentile is computed again every RECOMPUTE samples.
+ *
+ * @author beykery
+ */
+final class Latencies
+{
+
+  private static final int RECOMPUTE = 256;
+  private final AtomicLongArray samples;
+  private final AtomicLong count = new AtomicLong();
+  private final double percentile;
+  private volatile long value = -1;
+
+  /**
+   *
+   * @param size samples kept
+   * @param percentile 0 to 100
+   */
+  Latencies(int size, double percentile)
+  {
+    this.samples = new AtomicLongArray(Math.max(size, RECOMPUTE));
+    this.percentile = percentile;
+  }
+
+  /**
+   * a latency
+   *
+   * @param nanos
+   */
+  void add(long nanos)
+  {
+    long n = count.getAndIncrement();
+    samples.set((int) (n % samples.length()), nanos);
+    if ((n + 1) % RECOMPUTE == 0)
+    {
+      int size = (int) Math.min(n + 1, samples.length());
+      long[] sorted = new long[size];
+      for (int i = 0; i < size; i++)
+      {
+        sorted[i] = samples.get(i);
+      }
+      Arrays.sort(sorted);
+      value = sorted[(int) Math.max(0, Math.min(size - 1, Math.ceil(percentile / 100 * size) - 1))];
+    }
+  }
+
+  /**
+   * the percentile in nanos
+   *
+   * @return -1 until RECOMPUTE samples
+   */
+  long percentile()
+  {
+    return value;
+  }
+}
@@ -0,0 +1,426 @@
+/**
+ * multiplexer
+ */
+package org.rojo.repository;
+
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import redis.clients.jedis.Protocol;
+import redis.clients.jedis.Protocol.Command;
+import redis.clients.jedis.exceptions.JedisConnectionException;
+import redis.clients.jedis.exceptions.JedisDataException;
+import redis.clients.util.RedisInputStream;
+import redis.clients.util.RedisOutputStream;
+import redis.clients.util.SafeEncoder;
+
+/**
+ * One connection shared by many threads: the threads queue batches of
+ * commands,a writer thread writes every batch queued meanwhile with one
+ * socket write,a reader thread gives the replies back to the batches in
+ * order. The commands of a batch are written together (a MULTI/EXEC queued
+ * in one batch stays a transaction). The connection is opened again on the
+ * next batch after a failure,the batches in flight fail. A connection with a
+ * call waiting its reply longer than the timeout is closed (half open).
+ *
+ * @author beykery
+ */
+final class Multiplexer
+{
+
+  private static final Logger LOG = Logger.getLogger(Multiplexer.class.getName());
+  private static final int MAX_COALESCE = 1024;//batches per socket write
+  private final String host;
+  private final int port;
+  private final int timeout;
+  private final String password;
+  private final int database;
+  private final long linger;
+  private final BlockingQueue<Batch> queue = new LinkedBlockingQueue<>();
+  private final Thread writer;
+  private volatile boolean closed;
+  private Link link;//writer thread only
+
+  /**
+   *
+   * @param host
+   * @param port
+   * @param timeout connect timeout and reply timeout (ms)
+   * @param password null if none
+   * @param database
+   * @param linger nanos the writer waits for more batches before a write
+   */
+  Multiplexer(String host, int port, int timeout, String password, int database, long linger)
+  {
+    this.host = host;
+    this.port = port;
+    this.timeout = timeout;
+    this.password = password;
+    this.database = database;
+    this.linger = linger;
+    writer = new Thread(new Runnable()
+    {
+      @Override
+      public void run()
+      {
+        write();
+      }
+    }, "rojo-mux-writer " + host + ":" + port);
+    writer.setDaemon(true);
+    writer.start();
+  }
+
+  int getTimeout()
+  {
+    return timeout;
+  }
+
+  /**
+   * queue a batch
+   *
+   * @param batch
+   */
+  void submit(Batch batch)
+  {
+    if (closed)
+    {
+      batch.fail(new JedisConnectionException("multiplexer closed"));
+      return;
+    }
+    queue.add(batch);
+  }
+
+  private void write()
+  {
+    List<Batch> batches = new ArrayList<>();
+    while (!closed)
+    {
+      try
+      {
+        batches.add(queue.take());
+        if (linger > 0 && queue.isEmpty())
+        {
+          LockSupport.parkNanos(linger);
+        }
+        queue.drainTo(batches, MAX_COALESCE);
+      } catch (InterruptedException e)
+      {
+        break;
+      }
+      Link l = link;
+      try
+      {
+        if (l == null || l.closed)
+        {
+          l = link = new Link();
+        }
+        for (Batch b : batches)
+        {
+          l.inflight.addAll(b.calls());
+          for (int i = 0; i < b.size(); i++)
+          {
+            Protocol.sendCommand(l.out, b.commands.get(i), b.args.get(i));
+          }
+        }
+        l.out.flush();
+      } catch (Exception e)
+      {
+        JedisConnectionException ce = e instanceof JedisConnectionException ? (JedisConnectionException) e : new JedisConnectionException(e);
+        if (l != null)
+        {
+          l.fail(ce);
+        }
+        for (Batch b : batches)
+        {
+          b.fail(ce);
+        }
+        LOG.log(Level.WARNING, "rojo mux {0}:{1} failed :{2}", new Object[]
+        {
+          host, port, e.getMessage()
+        });
+      }
+      batches.clear();
+    }
+    if (link != null)
+    {
+      link.fail(new JedisConnectionException("multiplexer closed"));
+    }
+  }
+
+  /**
+   * close the connection,the batches queued fail
+   */
+  void close()
+  {
+    closed = true;
+    writer.interrupt();
+    List<Batch> left = new ArrayList<>();
+    queue.drainTo(left);
+    for (Batch b : left)
+    {
+      b.fail(new JedisConnectionException("multiplexer closed"));
+    }
+  }
+
+  /**
+   * a connection and its reader thread
+   */
+  private final class Link
+  {
+
+    private final Socket socket;
+    private final RedisOutputStream out;
+    private final RedisInputStream in;
+    private final Queue<Call> inflight = new ConcurrentLinkedQueue<>();
+    private volatile boolean closed;
+
+    Link() throws Exception
+    {
+      socket = new Socket();
+      socket.setReuseAddress(true);
+      socket.setKeepAlive(true);
+      socket.setTcpNoDelay(true);
+      try
+      {
+        socket.connect(new InetSocketAddress(host, port), timeout);
+        socket.setSoTimeout(timeout);
+        out = new RedisOutputStream(socket.getOutputStream());
+        in = new RedisInputStream(socket.getInputStream());
+        if (password != null)
+        {
+          Protocol.sendCommand(out, Command.AUTH, SafeEncoder.encode(password));
+          out.flush();
+          Protocol.read(in);
+        }
+        if (database != Protocol.DEFAULT_DATABASE)
+        {
+          Protocol.sendCommand(out, Command.SELECT, Protocol.toByteArray(database));
+          out.flush();
+          Protocol.read(in);
+        }
+      } catch (Exception e)
+      {
+        socket.close();
+        throw e;
+      }
+      Thread reader = new Thread(new Runnable()
+      {
+        @Override
+        public void run()
+        {
+          read();
+        }
+      }, "rojo-mux-reader " + host + ":" + port);
+      reader.setDaemon(true);
+      reader.start();
+    }
+
+    private void read()
+    {
+      while (!closed)
+      {
+        Object reply;
+        try
+        {
+          reply = Protocol.read(in);
+        } catch (JedisDataException e)
+        {
+          reply = e;
+        } catch (JedisConnectionException e)
+        {
+          if (e.getCause() instanceof SocketTimeoutException && !isLate())
+          {
+            continue;//idle
+          }
+          fail(e);
+          return;
+        } catch (Exception e)
+        {
+          fail(e instanceof JedisConnectionException ? (JedisConnectionException) e : new JedisConnectionException(e));
+          return;
+        }
+        Call c = inflight.poll();
+        if (c == null)
+        {
+          fail(new JedisConnectionException("reply without command"));
+          return;
+        }
+        c.batch.set(c.index, reply);
+      }
+    }
+
+    /**
+     * the oldest call in flight waits its reply for more than the timeout
+     * (the connection may be half open)
+     *
+     * @return
+     */
+    private boolean isLate()
+    {
+      Call c = inflight.peek();
+      return c != null && System.nanoTime() - c.sent >= TimeUnit.MILLISECONDS.toNanos(timeout);
+    }
+
+    /**
+     * close the connection,the calls in flight fail
+     *
+     * @param e
+     */
+    void fail(JedisConnectionException e)
+    {
+      closed = true;
+      try
+      {
+        socket.close();
+      } catch (Exception ex)
+      {
+      }
+      Call c;
+      while ((c = inflight.poll()) != null)
+      {
+        c.batch.set(c.index, e);
+      }
+    }
+  }
+
+  /**
+   * a command of a batch in flight
+   */
+  private static final class Call
+  {
+
+    private final Batch batch;
+    private final int index;
+    private final long sent;
+
+    Call(Batch batch, int index, long sent)
+    {
+      this.batch = batch;
+      this.index = index;
+      this.sent = sent;
+    }
+  }
+
+  /**
+   * the commands of a thread and their replies (a reply is a
+   * JedisDataException for an error reply,a JedisConnectionException if the
+   * connection failed)
+   */
+  static final class Batch
+  {
+
+    private final List<Command> commands = new ArrayList<>();
+    private final List<byte[][]> args = new ArrayList<>();
+    private Object[] replies;
+    private boolean[] done;
+    private int remaining;
+
+    void add(Command command, byte[][] a)
+    {
+      commands.add(command);
+      args.add(a);
+    }
+
+    int size()
+    {
+      return commands.size();
+    }
+
+    private List<Call> calls()
+    {
+      synchronized (this)
+      {
+        open();
+      }
+      List<Call> calls = new ArrayList<>(commands.size());
+      long now = System.nanoTime();
+      for (int i = 0; i < commands.size(); i++)
+      {
+        calls.add(new Call(this, i, now));
+      }
+      return calls;
+    }
+
+    private void open()
+    {
+      if (replies == null)
+      {
+        replies = new Object[commands.size()];
+        done = new boolean[replies.length];
+        remaining = replies.length;
+      }
+    }
+
+    private synchronized void set(int i, Object reply)
+    {
+      if (replies != null && !done[i])
+      {
+        replies[i] = reply;
+        done[i] = true;
+        if (--remaining == 0)
+        {
+          notifyAll();
+        }
+      }
+    }
+
+    /**
+     * every reply not come yet fails
+     *
+     * @param e
+     */
+    synchronized void fail(JedisConnectionException e)
+    {
+      open();
+      for (int i = 0; i < replies.length; i++)
+      {
+        if (!done[i])
+        {
+          replies[i] = e;
+          done[i] = true;
+        }
+      }
+      remaining = 0;
+      notifyAll();
+    }
+
+    /**
+     * wait the replies
+     *
+     * @param millis
+     * @return the replies,the late ones fail
+     */
+    synchronized Object[] await(long millis)
+    {
+      long end = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(millis);
+      while (replies == null || remaining > 0)
+      {
+        long left = end - System.nanoTime();
+        if (left <= 0)
+        {
+          fail(new JedisConnectionException("read timed out"));
+          break;
+        }
+        try
+        {
+          TimeUnit.NANOSECONDS.timedWait(this, left);
+        } catch (InterruptedException e)
+        {
+          Thread.currentThread().interrupt();
+          fail(new JedisConnectionException(e));
+        }
+      }
+      return replies;
+    }
+  }
+}
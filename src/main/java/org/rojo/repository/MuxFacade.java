@@ -0,0 +1,226 @@
+/**
+ * multiplexed facade
+ */
+package org.rojo.repository;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import redis.clients.jedis.Client;
+import redis.clients.jedis.Connection;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.Protocol.Command;
+import redis.clients.jedis.exceptions.JedisConnectionException;
+import redis.clients.jedis.exceptions.JedisDataException;
+import redis.clients.jedis.exceptions.JedisException;
+
+/**
+ * A facade on a shared connection: the commands of the pipeline (or of a
+ * blocking call) are queued to the multiplexer as one batch on sync,the
+ * facade itself holds no socket.
+ *
+ * @author beykery
+ */
+final class MuxFacade extends RedisFacade
+{
+
+  private final MuxClient client;
+
+  MuxFacade(Multiplexer mux)
+  {
+    this(new MuxClient(mux));
+  }
+
+  private MuxFacade(MuxClient client)
+  {
+    super(new MuxJedis(client));
+    this.client = client;
+  }
+
+  @Override
+  void sync()
+  {
+    super.sync();
+    client.check();
+  }
+
+  @Override
+  void flush()
+  {
+    super.flush();
+    client.check();
+  }
+
+  @Override
+  void reset()
+  {
+    try
+    {
+      pipe(null).clear();
+    } catch (Exception e)
+    {
+    }
+    client.clear();
+    super.reset();
+  }
+
+  /**
+   * a jedis on a mux client
+   */
+  private static final class MuxJedis extends Jedis
+  {
+
+    MuxJedis(MuxClient client)
+    {
+      this.client = client;
+    }
+  }
+
+  /**
+   * a client queuing its commands to the multiplexer instead of a socket
+   */
+  private static final class MuxClient extends Client
+  {
+
+    private final Multiplexer mux;
+    private final Deque<Multiplexer.Batch> sent = new ArrayDeque<>();//batches waiting for their replies
+    private Multiplexer.Batch batch = new Multiplexer.Batch();
+    private Object[] replies;//of the head batch
+    private int read;
+    private int outstanding;//commands without reply read
+    private JedisConnectionException failure;//of the last replies of a pipeline
+
+    MuxClient(Multiplexer mux)
+    {
+      this.mux = mux;
+    }
+
+    @Override
+    protected Connection sendCommand(Command cmd, byte[]... args)
+    {
+      batch.add(cmd, args);
+      outstanding++;
+      return this;
+    }
+
+    @Override
+    protected void flush()
+    {
+      if (batch.size() > 0)
+      {
+        mux.submit(batch);
+        sent.add(batch);
+        batch = new Multiplexer.Batch();
+      }
+    }
+
+    @Override
+    protected Object readProtocolWithCheckingBroken()
+    {
+      Object reply = next();
+      if (reply instanceof JedisException)
+      {
+        throw (JedisException) reply;
+      }
+      return reply;
+    }
+
+    /**
+     * the replies of a pipeline,a connection failure is given to each
+     * response as an error and thrown by check
+     *
+     * @param except
+     * @return
+     */
+    @Override
+    public List<Object> getAll(int except)
+    {
+      flush();
+      List<Object> all = new ArrayList<>();
+      while (outstanding > except)
+      {
+        Object reply = next();
+        if (reply instanceof JedisConnectionException)
+        {
+          failure = (JedisConnectionException) reply;
+          reply = new JedisDataException(failure.getMessage());
+        }
+        all.add(reply);
+      }
+      return all;
+    }
+
+    private Object next()
+    {
+      if (replies == null)
+      {
+        Multiplexer.Batch b = sent.poll();
+        if (b == null)
+        {
+          throw new JedisConnectionException("no reply pending");
+        }
+        replies = b.await(mux.getTimeout());
+        read = 0;
+      }
+      Object reply = replies[read++];
+      if (read == replies.length)
+      {
+        replies = null;
+      }
+      outstanding--;
+      return reply;
+    }
+
+    /**
+     * throw the connection failure of the last replies
+     */
+    void check()
+    {
+      if (failure != null)
+      {
+        JedisConnectionException e = failure;
+        failure = null;
+        throw e;
+      }
+    }
+
+    /**
+     * forget the commands and the replies
+     */
+    void clear()
+    {
+      batch = new Multiplexer.Batch();
+      sent.clear();
+      replies = null;
+      outstanding = 0;
+      failure = null;
+    }
+
+    @Override
+    public boolean isConnected()
+    {
+      return false;
+    }
+
+    @Override
+    public void connect()
+    {
+    }
+
+    @Override
+    public void disconnect()
+    {
+    }
+
+    @Override
+    public void setTimeoutInfinite()
+    {
+    }
+
+    @Override
+    public void rollbackTimeout()
+    {
+    }
+  }
+}
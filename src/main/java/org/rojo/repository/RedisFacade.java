@@ -3,10 +3,13 @@ package org.rojo.repository;
 import java.io.UnsupportedEncodingException;
 import java.lang.reflect.Field;
 import java.lang.reflect.Type;
+import java.nio.charset.Charset;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
@@ -17,18 +20,27 @@ import org.rojo.exceptions.InvalidTypeException;
 import redis.clients.jedis.Jedis;
 import redis.clients.jedis.Pipeline;
 import redis.clients.jedis.Response;
+import redis.clients.jedis.ScanParams;
+import redis.clients.jedis.ScanResult;
+import redis.clients.jedis.Tuple;
+import redis.clients.jedis.exceptions.JedisDataException;
 
 public class RedisFacade
 {
 
   private final Jedis je;
   private final Pipeline pipe;
+  private boolean pending;//commands queued but not synced
+  int refs;//operations of the borrowing thread using this facade
   private static final String FOR_ALLFIELD_KEY = "001all_propertiesHashMap_key";
   private static final String FOR_ALL_IDS_SET_KEY = "002all_ids_key";
   private static final String FOR_SORTED_KEY = "003sorted_key";
   private static final String FOR_UNIQUE_KEY = "004unique_key";
   private static final String FOR_INDEX_KEY = "005indexing_key";
   private static final String NULL = "#*%$NULL@&%$#*{)}}(";//null
+  private static final Charset UTF8 = Charset.forName("UTF-8");
+  static volatile int trimSlack;//members over the cap before a trim (rojo.trim.slack)
+  final List<Queued> queued = new ArrayList<>();//scripts pipelined since the last sync
 
   public RedisFacade(Jedis jrClient)
   {
@@ -36,6 +48,111 @@ public class RedisFacade
     pipe = je.pipelined();
   }
 
+  /**
+   * for the facades routing the keys to several connections (they override
+   * pipe,jedis,sync and the other connection methods)
+   */
+  RedisFacade()
+  {
+    this.je = null;
+    this.pipe = null;
+  }
+
+  /**
+   * the pipeline of the connection serving key,commands queued make the
+   * facade pending until sync
+   *
+   * @param key
+   * @return
+   */
+  Pipeline pipe(String key)
+  {
+    pending = true;
+    return pipe;
+  }
+
+  /**
+   * the connection serving key (blocking calls)
+   *
+   * @param key
+   * @return
+   */
+  Jedis jedis(String key)
+  {
+    return je;
+  }
+
+  /**
+   * the pipeline for a read of key (a replica may serve it)
+   *
+   * @param key
+   * @return
+   */
+  Pipeline readPipe(String key)
+  {
+    return pipe(key);
+  }
+
+  /**
+   * the connection for a blocking read of key (a replica may serve it)
+   *
+   * @param key
+   * @return
+   */
+  Jedis readJedis(String key)
+  {
+    return jedis(key);
+  }
+
+  /**
+   * the entity a key belongs to
+   *
+   * @param key
+   * @return table:id (or its tag),null for the keys of a table
+   */
+  static String entityOf(String key)
+  {
+    if (key.endsWith(FOR_ALL_IDS_SET_KEY) || key.endsWith(FOR_SORTED_KEY) || key.endsWith(FOR_UNIQUE_KEY) || key.endsWith(FOR_INDEX_KEY) || key.endsWith(":::id"))
+    {
+      return null;
+    }
+    int i = key.lastIndexOf(':');
+    return i <= 0 ? null : key.substring(0, i);
+  }
+
+  /**
+   * the prefix of the keys of an entity
+   *
+   * @param table
+   * @param id
+   * @return
+   */
+  String entityKey(String table, String id)
+  {
+    return table + ":" + id;
+  }
+
+  /**
+   * can a script touch keys of several entities or tables (false when keys
+   * live on different nodes)
+   *
+   * @return
+   */
+  boolean isScriptAcrossKeys()
+  {
+    return true;
+  }
+
+  /**
+   * has commands not synced
+   *
+   * @return
+   */
+  boolean isPending()
+  {
+    return pending;
+  }
+
   /**
    * read a proterty
    *
@@ -50,9 +167,12 @@ public class RedisFacade
   @SuppressWarnings("unchecked")
   public <T> T readValue(String table, String id, String column, Field field) throws UnsupportedEncodingException
   {
-    byte[] v = je.hget(keyForAllField(table, id).getBytes("UTF-8"), column.getBytes("UTF-8"));
     Class<?> t = field.getType();
-    return decode(t, v);
+    if (t == byte[].class)
+    {
+      return decode(t, readJedis(keyForAllField(table, id)).hget(keyForAllField(table, id).getBytes("UTF-8"), column.getBytes("UTF-8")));
+    }
+    return decode(t, readJedis(keyForAllField(table, id)).hget(keyForAllField(table, id), column));
   }
 
   /**
@@ -65,9 +185,11 @@ public class RedisFacade
    * @param field
    * @param destination
    */
-  public <T> void readValues(String table, String id, String column, Field field, Collection<T> destination)
+  public <T> void readValues(String table, String id, String column, Field field, Collection<T> destination) throws UnsupportedEncodingException
   {
-    List<String> values = je.lrange(keyForField(table, id, column), 0, -1);
+    Response r = readFuture(table, id, column, field);
+    sync();
+    Collection<String> values = members(r, keyForField(table, id, column));
     for (String value : values)
     {
       destination.add((T) decode((Class) ((java.lang.reflect.ParameterizedType) field.getGenericType()).getActualTypeArguments()[0], value));
@@ -76,7 +198,7 @@ public class RedisFacade
 
   <K, V> void readValues(String table, String id, String column, Field f, Map<K, V> dest)
   {
-    Map<String, String> values = je.hgetAll(keyForField(table, id, column));
+    Map<String, String> values = readJedis(keyForField(table, id, column)).hgetAll(keyForField(table, id, column));
     for (Map.Entry<String, String> en : values.entrySet())
     {
       Type[] ts = ((java.lang.reflect.ParameterizedType) f.getGenericType()).getActualTypeArguments();
@@ -87,59 +209,401 @@ public class RedisFacade
   }
 
   /**
-   * all fields
+   * all fields (existence is checked in the same pipeline)
    *
    * @param <T>
    * @param entity
    * @param id
    * @param fields
+   * @return false if the entity does not exist
+   */
+  <T> boolean processFields(T entity, EntityRepresentation representation, String id) throws Exception
+  {
+    Response[] rs = readFutures(representation, id);
+    sync();
+    return processFields(entity, representation, rs);
+  }
+
+  /**
+   * queue the existence check and all field reads of an entity
+   *
+   * @param representation
+   * @param id
+   * @return the futures,the first one is the existence
+   * @throws UnsupportedEncodingException
+   */
+  Response[] readFutures(EntityRepresentation representation, String id) throws UnsupportedEncodingException
+  {
+    Field[] fields = representation.getFields();
+    String[] columns = representation.getColumns();
+    String table = representation.getTable();
+    Response[] rs = new Response[fields.length + 1];
+    rs[0] = readPipe(keyForAllField(table, id)).exists(keyForAllField(table, id));
+    for (int i = 0; i < fields.length; i++)
+    {
+      rs[i + 1] = readFuture(table, id, columns[i], fields[i]);
+    }
+    return rs;
+  }
+
+  /**
+   * fill the entity with synced futures
+   *
+   * @param <T>
+   * @param entity
+   * @param representation
+   * @param rs futures from readFutures
+   * @return false if the entity does not exist
+   * @throws Exception
    */
-  <T> void processFields(T entity, EntityRepresentation representation, String id) throws Exception
+  <T> boolean processFields(T entity, EntityRepresentation representation, Response[] rs) throws Exception
   {
+    if (!(Boolean) rs[0].get())
+    {
+      return false;
+    }
     Field[] fields = representation.getFields();
     String[] columns = representation.getColumns();
+    String id = representation.getId(entity);
+    for (int i = 0; i < fields.length; i++)
+    {
+      fill(entity, fields[i], isSet(fields[i]) ? members(rs[i + 1], keyForField(representation.getTable(), id, columns[i])) : rs[i + 1].get());
+    }
+    return true;
+  }
+
+  /**
+   * the members of a set field,a set still stored as a list (older data) is
+   * read again with LRANGE
+   *
+   * @param r
+   * @param key
+   * @return
+   */
+  private Collection<String> members(Response r, String key)
+  {
+    try
+    {
+      return (Collection<String>) r.get();
+    } catch (JedisDataException e)
+    {
+      if (e.getMessage() == null || !e.getMessage().startsWith("WRONGTYPE"))
+      {
+        throw e;
+      }
+      Response<List<String>> again = readPipe(key).lrange(key, 0, -1);
+      sync();
+      return again.get();
+    }
+  }
+
+  /**
+   * a set field stored as a redis set (an ordered one is stored as a list)
+   *
+   * @param field
+   * @return
+   */
+  static boolean isSet(Field field)
+  {
+    Value v = field.getAnnotation(Value.class);
+    return field.getType() == Set.class && (v == null || !v.ordered());
+  }
+
+  /**
+   * read the given fields only,simple fields come from one HMGET
+   *
+   * @param <T>
+   * @param entity
+   * @param representation
+   * @param id
+   * @param fields
+   * @param columns
+   * @return false if the entity does not exist
+   * @throws Exception
+   */
+  <T> boolean processFields(T entity, EntityRepresentation representation, String id, Field[] fields, String[] columns) throws Exception
+  {
     String table = representation.getTable();
+    Response<Boolean> exists = readPipe(keyForAllField(table, id)).exists(keyForAllField(table, id));
     Response[] rs = new Response[fields.length];
-    for (int i = 0; i < rs.length; i++)
+    List<byte[]> simple = new ArrayList<>();
+    for (int i = 0; i < fields.length; i++)
     {
-      rs[i] = readFuture(table, id, columns[i], fields[i]);
+      if (Collection.class.isAssignableFrom(fields[i].getType()) || Map.class.isAssignableFrom(fields[i].getType()))
+      {
+        rs[i] = readFuture(table, id, columns[i], fields[i]);
+      } else
+      {
+        simple.add(columns[i].getBytes("UTF-8"));
+      }
     }
+    Response<List<byte[]>> values = null;
+    if (!simple.isEmpty())
+    {
+      values = readPipe(keyForAllField(table, id)).hmget(keyForAllField(table, id).getBytes("UTF-8"), simple.toArray(new byte[simple.size()][]));
+    }
+    sync();
+    if (!exists.get())
+    {
+      return false;
+    }
+    int j = 0;
+    for (int i = 0; i < fields.length; i++)
+    {
+      if (rs[i] != null)
+      {
+        fill(entity, fields[i], isSet(fields[i]) ? members(rs[i], keyForField(table, id, columns[i])) : rs[i].get());
+      } else
+      {
+        byte[] v = values.get().get(j++);
+        fill(entity, fields[i], v == null || fields[i].getType() == byte[].class ? v : new String(v, "UTF-8"));
+      }
+    }
+    return true;
+  }
+
+  /**
+   * read an entity with the read script (one reply,atomic)
+   *
+   * @param <T>
+   * @param entity
+   * @param representation
+   * @param id
+   * @return false if the entity does not exist
+   * @throws Exception
+   */
+  <T> boolean processScript(T entity, EntityRepresentation representation, String id) throws Exception
+  {
+    Response<Object> r = readScriptFuture(representation, id);
     sync();
+    return processScript(entity, representation, id, r);
+  }
+
+  /**
+   * queue the read script of an entity
+   *
+   * @param representation
+   * @param id
+   * @return
+   * @throws UnsupportedEncodingException
+   */
+  Response<Object> readScriptFuture(EntityRepresentation representation, String id) throws UnsupportedEncodingException
+  {
+    return readPipe(keyForAllField(representation.getTable(), id)).evalsha(Script.READ.sha, readScriptKeys(representation, id), readScriptArgs(representation));
+  }
+
+  /**
+   * send again the read scripts failed with NOSCRIPT: the script is loaded
+   * once per node,then the reads go in one pipeline
+   *
+   * @param representation
+   * @param ids
+   * @param from the index in ids of rs[0]
+   * @param rs synced futures from readScriptFuture,the failed ones are
+   * replaced
+   * @throws UnsupportedEncodingException
+   */
+  void retryReadScripts(EntityRepresentation representation, String[] ids, int from, Object[] rs) throws UnsupportedEncodingException
+  {
+    List<Integer> failed = new ArrayList<>();
+    Set<Jedis> loaded = Collections.newSetFromMap(new IdentityHashMap<Jedis, Boolean>());
     for (int i = 0; i < rs.length; i++)
+    {
+      if (isNoScript((Response<Object>) rs[i]))
+      {
+        failed.add(i);
+        Jedis j = readJedis(keyForAllField(representation.getTable(), ids[from + i]));
+        if (loaded.add(j))
+        {
+          j.scriptLoad(Script.READ.body);
+        }
+      }
+    }
+    if (failed.isEmpty())
+    {
+      return;
+    }
+    for (int i : failed)
+    {
+      rs[i] = readScriptFuture(representation, ids[from + i]);
+    }
+    sync();
+  }
+
+  private static boolean isNoScript(Response<Object> r)
+  {
+    try
+    {
+      r.get();
+      return false;
+    } catch (JedisDataException e)
+    {
+      return e.getMessage() != null && e.getMessage().startsWith("NOSCRIPT");
+    }
+  }
+
+  /**
+   * fill the entity with the synced reply of the read script
+   *
+   * @param <T>
+   * @param entity
+   * @param representation
+   * @param id
+   * @param r
+   * @return false if the entity does not exist
+   * @throws Exception
+   */
+  <T> boolean processScript(T entity, EntityRepresentation representation, String id, Response<Object> r) throws Exception
+  {
+    List<Object> reply = (List<Object>) scriptResult(Script.READ, r, readScriptKeys(representation, id), readScriptArgs(representation));
+    if (reply == null)
+    {
+      return false;
+    }
+    Map<String, byte[]> simple = new HashMap<>();
+    List<byte[]> all = (List<byte[]>) reply.get(0);
+    for (int i = 0; i + 1 < all.size(); i += 2)
+    {
+      simple.put(new String(all.get(i), "UTF-8"), all.get(i + 1));
+    }
+    Field[] fields = representation.getFields();
+    String[] columns = representation.getColumns();
+    int k = 1;
+    for (int i = 0; i < fields.length; i++)
     {
       if (Collection.class.isAssignableFrom(fields[i].getType()))
       {
-        Collection holder = initCollectionHolder(fields[i]);
-        List<String> r = (List<String>) rs[i].get();
-        for (String value : r)
+        List<byte[]> items = (List<byte[]>) reply.get(k++);
+        List<String> values = new ArrayList<>(items.size());
+        for (byte[] item : items)
         {
-          holder.add(decode((Class) ((java.lang.reflect.ParameterizedType) fields[i].getGenericType()).getActualTypeArguments()[0], value));
+          values.add(new String(item, "UTF-8"));
         }
-        fields[i].set(entity, holder);
+        fill(entity, fields[i], values);
       } else if (Map.class.isAssignableFrom(fields[i].getType()))
       {
-        Map map = initMapHolder(fields[i]);
-        Map<String, String> values = (Map<String, String>) rs[i].get();
-        Type[] ts = ((java.lang.reflect.ParameterizedType) fields[i].getGenericType()).getActualTypeArguments();
-        for (Map.Entry<String, String> en : values.entrySet())
+        List<byte[]> items = (List<byte[]>) reply.get(k++);
+        Map<String, String> values = new HashMap<>();
+        for (int j = 0; j + 1 < items.size(); j += 2)
         {
-          Class keyClaz = (Class) ts[0];
-          Class valueClaz = (Class) ts[1];
-          Object k = decode(keyClaz, en.getKey());
-          if (k != null)
-          {
-            map.put(k, decode(valueClaz, en.getValue()));
-          }
+          values.put(new String(items.get(j), "UTF-8"), new String(items.get(j + 1), "UTF-8"));
         }
-        fields[i].set(entity, map);
+        fill(entity, fields[i], values);
       } else
       {
-        Object temp = decode(fields[i].getType(), rs[i].get());
-        if (temp != null)
+        byte[] v = simple.get(columns[i]);
+        fill(entity, fields[i], v == null || fields[i].getType() == byte[].class ? v : new String(v, "UTF-8"));
+      }
+    }
+    return true;
+  }
+
+  private List<byte[]> readScriptKeys(EntityRepresentation representation, String id) throws UnsupportedEncodingException
+  {
+    Field[] fields = representation.getFields();
+    String[] columns = representation.getColumns();
+    String table = representation.getTable();
+    List<byte[]> keys = new ArrayList<>();
+    keys.add(keyForAllField(table, id).getBytes("UTF-8"));
+    for (int i = 0; i < fields.length; i++)
+    {
+      if (Collection.class.isAssignableFrom(fields[i].getType()) || Map.class.isAssignableFrom(fields[i].getType()))
+      {
+        keys.add(keyForField(table, id, columns[i]).getBytes("UTF-8"));
+      }
+    }
+    return keys;
+  }
+
+  private List<byte[]> readScriptArgs(EntityRepresentation representation) throws UnsupportedEncodingException
+  {
+    List<byte[]> args = new ArrayList<>();
+    for (Field field : representation.getFields())
+    {
+      if (isSet(field))
+      {
+        args.add("s".getBytes("UTF-8"));
+      } else if (Collection.class.isAssignableFrom(field.getType()))
+      {
+        args.add("l".getBytes("UTF-8"));
+      } else if (Map.class.isAssignableFrom(field.getType()))
+      {
+        args.add("h".getBytes("UTF-8"));
+      }
+    }
+    return args;
+  }
+
+  /**
+   * the reply of a script,the script is sent again with EVAL if the server
+   * does not know it
+   *
+   * @param script
+   * @param r
+   * @param keys
+   * @param args
+   * @return
+   */
+  private Object scriptResult(Script script, Response<Object> r, List<byte[]> keys, List<byte[]> args)
+  {
+    try
+    {
+      return r.get();
+    } catch (JedisDataException e)
+    {
+      if (e.getMessage() == null || !e.getMessage().startsWith("NOSCRIPT"))
+      {
+        throw e;
+      }
+      String key = new String(keys.get(0), UTF8);
+      Response<Object> again = (script == Script.READ ? readPipe(key) : pipe(key)).eval(script.body, keys, args);
+      sync();
+      return again.get();
+    }
+  }
+
+  /**
+   * set a field with the raw value read from redis
+   *
+   * @param entity
+   * @param field
+   * @param v
+   * @throws Exception
+   */
+  private void fill(Object entity, Field field, Object v) throws Exception
+  {
+    if (Collection.class.isAssignableFrom(field.getType()))
+    {
+      Collection holder = initCollectionHolder(field);
+      Collection<String> values = (Collection<String>) v;
+      for (String value : values)
+      {
+        holder.add(decode((Class) ((java.lang.reflect.ParameterizedType) field.getGenericType()).getActualTypeArguments()[0], value));
+      }
+      field.set(entity, holder);
+    } else if (Map.class.isAssignableFrom(field.getType()))
+    {
+      Map map = initMapHolder(field);
+      Map<String, String> values = (Map<String, String>) v;
+      Type[] ts = ((java.lang.reflect.ParameterizedType) field.getGenericType()).getActualTypeArguments();
+      for (Map.Entry<String, String> en : values.entrySet())
+      {
+        Class keyClaz = (Class) ts[0];
+        Class valueClaz = (Class) ts[1];
+        Object k = decode(keyClaz, en.getKey());
+        if (k != null)
         {
-          fields[i].set(entity, temp);
+          map.put(k, decode(valueClaz, en.getValue()));
         }
       }
+      field.set(entity, map);
+    } else
+    {
+      Object temp = decode(field.getType(), v);
+      if (temp != null)
+      {
+        field.set(entity, temp);
+      }
     }
   }
 
@@ -150,12 +614,12 @@ public class RedisFacade
 
   private String keyForField(String table, String id, String column)
   {
-    return table + ":" + id + ":" + column;
+    return entityKey(table, id) + ":" + column;
   }
 
-  private String keyForAllField(String table, String id)
+  String keyForAllField(String table, String id)
   {
-    return table + ":" + id + ":" + FOR_ALLFIELD_KEY;
+    return entityKey(table, id) + ":" + FOR_ALLFIELD_KEY;
   }
 
   private String keyForSorted(String table, String column)
@@ -185,38 +649,225 @@ public class RedisFacade
   {
     try
     {
-      pipe.hset(keyForAllField(table, id), column, v.toString());
+      pipe(keyForAllField(table, id)).hset(keyForAllField(table, id), column, v.toString());
       Value annotation = field.getAnnotation(Value.class);
       if (annotation.sort())
       {
         final String key = keyForSorted(table, column);
-        pipe.zadd(key, toDouble(v), String.valueOf(id));
-        if (annotation.size() > 0)
+        zaddCapped(key, toDouble(v), String.valueOf(id), annotation);
+      }
+      if (withIndexing)
+      {
+        if (!annotation.unique())
         {
-          if (annotation.bigFirst())
+          Index index = field.getAnnotation(Index.class);
+          if (index != null)//indexing
           {
-            pipe.zremrangeByRank(key, 0, -annotation.size() - 1);
-          } else
+            String key = keyForIndex(table, column, v.toString());
+            pipe(key).zadd(key, System.currentTimeMillis(), String.valueOf(id));
+          }
+        }
+      }
+      return true;
+    } catch (Exception e)
+    {
+      return false;
+    }
+  }
+
+  /**
+   * save an entity with the save script: the unique reservation,the hash,the
+   * collections,the sorts,the indexes and the id are written in one atomic
+   * call
+   *
+   * @param entity
+   * @param representation
+   * @param id
+   * @return false if the unique value is taken
+   * @throws Exception
+   */
+  boolean saveByScript(Object entity, EntityRepresentation representation, String id) throws Exception
+  {
+    String table = representation.getTable();
+    long now = System.currentTimeMillis();
+    ScriptOps ops = new ScriptOps();
+    Field unique = representation.getUnique();
+    if (unique != null)
+    {
+      ops.key(keyForUnique(table, representation.getColumn(unique.getName()), unique.get(entity).toString()));
+    } else
+    {
+      ops.key(keyForAllField(table, id));
+    }
+    ops.add(id, unique != null ? "1" : "0");
+    Field[] fields = representation.getFields();
+    String[] columns = representation.getColumns();
+    List<Object> hash = new ArrayList<>();
+    for (int i = 0; i < fields.length; i++)
+    {
+      Field field = fields[i];
+      Object v = field.get(entity);
+      if (v == null)
+      {
+        continue;
+      }
+      if (Collection.class.isAssignableFrom(field.getType()))
+      {
+        String k = ops.key(keyForField(table, id, columns[i]));
+        ops.add("D", k);
+        List<Object> values = new ArrayList<>();
+        for (Object value : (Collection) v)
+        {
+          values.add(value == null ? NULL : value.toString());
+        }
+        ops.addAll(isSet(field) ? "S" : "L", k, values);
+      } else if (Map.class.isAssignableFrom(field.getType()))
+      {
+        String k = ops.key(keyForField(table, id, columns[i]));
+        ops.add("D", k);
+        List<Object> values = new ArrayList<>();
+        for (Map.Entry en : ((Map<Object, Object>) v).entrySet())
+        {
+          if (en.getKey() != null)
           {
-            pipe.zremrangeByRank(key, annotation.size(), -1);
+            values.add(en.getKey().toString());
+            values.add(en.getValue() == null ? NULL : en.getValue().toString());
           }
         }
+        ops.addAll("H", k, values);
+      } else
+      {
+        hash.add(columns[i]);
+        hash.add(v);
+        Value annotation = field.getAnnotation(Value.class);
+        if (annotation == null || v instanceof byte[])
+        {
+          continue;
+        }
+        if (annotation.sort())
+        {
+          String k = ops.key(keyForSorted(table, columns[i]));
+          ops.add("Z", k, toDouble(v), id);
+          long[] trim = trimRanks(annotation);
+          if (trim != null)
+          {
+            ops.add("T", k, trim[0], trim[1], trim[2]);
+          }
+        }
+        if (!annotation.unique() && field.isAnnotationPresent(Index.class))
+        {
+          ops.add("Z", ops.key(keyForIndex(table, columns[i], v.toString())), now, id);
+        }
+      }
+    }
+    ops.addAll("H", ops.key(keyForAllField(table, id)), hash);
+    if (representation.isIdCache())
+    {
+      ops.add("Z", ops.key(keyForAll(table)), now, id);
+    }
+    Response<Object> r = pipe(new String(ops.keys.get(0), UTF8)).evalsha(Script.SAVE.sha, ops.keys, ops.args);
+    sync();
+    Object result = scriptResult(Script.SAVE, r, ops.keys, ops.args);
+    return result instanceof Long && (Long) result == 1L;
+  }
+
+  /**
+   * increment a numeric field with the incr script (the sorted key follows)
+   *
+   * @param table
+   * @param id
+   * @param column
+   * @param field
+   * @param delta
+   * @param floating HINCRBYFLOAT
+   * @return the new value,null if the entity does not exist
+   * @throws UnsupportedEncodingException
+   */
+  String incr(String table, String id, String column, Field field, Number delta, boolean floating) throws UnsupportedEncodingException
+  {
+    List<byte[]> keys = new ArrayList<>(2);
+    List<byte[]> args = new ArrayList<>(6);
+    keys.add(keyForAllField(table, id).getBytes("UTF-8"));
+    args.add(column.getBytes("UTF-8"));
+    args.add(delta.toString().getBytes("UTF-8"));
+    args.add((floating ? "f" : "i").getBytes("UTF-8"));
+    args.add(id.getBytes("UTF-8"));
+    Value annotation = field.getAnnotation(Value.class);
+    boolean sorted = annotation != null && annotation.sort();
+    String key = keyForSorted(table, column);
+    long[] trim = sorted ? trimRanks(annotation) : null;
+    if (sorted && isScriptAcrossKeys())
+    {
+      keys.add(key.getBytes("UTF-8"));
+      if (trim != null)
+      {
+        for (long t : trim)
+        {
+          args.add(String.valueOf(t).getBytes("UTF-8"));
+        }
+      }
+    }
+    Response<Object> r = pipe(keyForAllField(table, id)).evalsha(Script.INCR.sha, keys, args);
+    sync();
+    Object v = scriptResult(Script.INCR, r, keys, args);
+    if (v == null)
+    {
+      return null;
+    }
+    String s = v instanceof byte[] ? new String((byte[]) v, "UTF-8") : v.toString();
+    if (sorted && keys.size() == 1)//the sorted key lives elsewhere,follows the hash
+    {
+      zaddCapped(key, Double.parseDouble(s), id, annotation);
+      sync();
+    }
+    return s;
+  }
+
+  /**
+   * keys and arguments of the save script
+   */
+  private static class ScriptOps
+  {
+
+    private static final int MAX_ARGS = 1000;//unpack limit of lua
+    final List<byte[]> keys = new ArrayList<>();
+    final List<byte[]> args = new ArrayList<>();
+    final Map<String, String> indexes = new HashMap<>();
+
+    /**
+     * the index (in KEYS) of a key
+     */
+    String key(String key) throws UnsupportedEncodingException
+    {
+      String index = indexes.get(key);
+      if (index == null)
+      {
+        keys.add(key.getBytes("UTF-8"));
+        index = String.valueOf(keys.size());
+        indexes.put(key, index);
       }
-      if (withIndexing)
+      return index;
+    }
+
+    void add(Object... vs) throws UnsupportedEncodingException
+    {
+      for (Object v : vs)
       {
-        if (!annotation.unique())
-        {
-          Index index = field.getAnnotation(Index.class);
-          if (index != null)//indexing
-          {
-            pipe.zadd(keyForIndex(table, column, v.toString()), System.currentTimeMillis(), String.valueOf(id));
-          }
-        }
+        args.add(v instanceof byte[] ? (byte[]) v : v.toString().getBytes("UTF-8"));
       }
-      return true;
-    } catch (Exception e)
+    }
+
+    /**
+     * an RPUSH/HMSET write,split to respect the unpack limit
+     */
+    void addAll(String op, String key, List<Object> values) throws UnsupportedEncodingException
     {
-      return false;
+      for (int from = 0; from < values.size(); from += MAX_ARGS)
+      {
+        int to = Math.min(from + MAX_ARGS, values.size());
+        add(op, key, to - from);
+        add(values.subList(from, to).toArray());
+      }
     }
   }
 
@@ -236,10 +887,10 @@ public class RedisFacade
     {
       if (v != null)
       {
-        pipe.hset(keyForAllField(table, id).getBytes("UTF-8"), column.getBytes("UTF-8"), v);
+        pipe(keyForAllField(table, id)).hset(keyForAllField(table, id).getBytes("UTF-8"), column.getBytes("UTF-8"), v);
       } else
       {
-        pipe.hdel(keyForAllField(table, id).getBytes("UTF-8"), column.getBytes("UTF-8"));
+        pipe(keyForAllField(table, id)).hdel(keyForAllField(table, id).getBytes("UTF-8"), column.getBytes("UTF-8"));
       }
       return true;
     } catch (Exception e)
@@ -259,25 +910,15 @@ public class RedisFacade
       }
       if (v != null)
       {
-        pipe.hset(keyForAllField(table, id), column, v.toString());
+        pipe(keyForAllField(table, id)).hset(keyForAllField(table, id), column, v.toString());
         if (annotation.sort())
         {
           final String key = keyForSorted(table, column);
-          pipe.zadd(key, toDouble(v), String.valueOf(id));
-          if (annotation.size() > 0)
-          {
-            if (annotation.bigFirst())
-            {
-              pipe.zremrangeByRank(key, 0, -annotation.size() - 1);
-            } else
-            {
-              pipe.zremrangeByRank(key, annotation.size(), -1);
-            }
-          }
+          zaddCapped(key, toDouble(v), String.valueOf(id), annotation);
         }
       } else
       {
-        pipe.hdel(keyForAllField(table, id), column);
+        pipe(keyForAllField(table, id)).hdel(keyForAllField(table, id), column);
       }
       return true;
     } catch (Exception e)
@@ -294,11 +935,11 @@ public class RedisFacade
    * @param id
    * @param field
    */
-  void writeCollection(String table, Collection<? extends Object> collection, String id, String column)
+  void writeCollection(String table, Collection<? extends Object> collection, String id, String column, Field field)
   {
     String key = keyForField(table, id, column);
-    pipe.del(key);
-    if (collection != null)
+    pipe(key).del(key);
+    if (collection != null && !collection.isEmpty())
     {
       String[] vs = new String[collection.size()];
       int i = 0;
@@ -306,7 +947,13 @@ public class RedisFacade
       {
         vs[i++] = value == null ? NULL : value.toString();
       }
-      pipe.rpush(key, vs);
+      if (isSet(field))
+      {
+        pipe(key).sadd(key, vs);
+      } else
+      {
+        pipe(key).rpush(key, vs);
+      }
     }
   }
 
@@ -321,7 +968,7 @@ public class RedisFacade
   void writeMap(String table, Map<Object, Object> map, String id, String column)
   {
     String key = keyForField(table, id, column);
-    pipe.del(key);
+    pipe(key).del(key);
     if (map != null)
     {
       Map<String, String> m = new HashMap();
@@ -333,8 +980,141 @@ public class RedisFacade
           m.put(k.toString(), en.getValue() == null ? NULL : en.getValue().toString());
         }
       }
-      pipe.hmset(key, m);
+      pipe(key).hmset(key, m);
+    }
+  }
+
+  /**
+   * append to a list,add to a set (synced,a set still stored as a list is
+   * converted)
+   *
+   * @param table
+   * @param id
+   * @param column
+   * @param values
+   */
+  void pushElements(String table, String id, String column, Field field, Object[] values)
+  {
+    String[] vs = new String[values.length];
+    for (int i = 0; i < vs.length; i++)
+    {
+      vs[i] = values[i] == null ? NULL : values[i].toString();
+    }
+    if (isSet(field))
+    {
+      setMembers(keyForField(table, id, column), 'a', vs);
+    } else
+    {
+      pipe(keyForField(table, id, column)).rpush(keyForField(table, id, column), vs);
+    }
+  }
+
+  /**
+   * remove every occurrence of a value from a list,remove a member of a set
+   * (synced,a set still stored as a list is converted)
+   *
+   * @param table
+   * @param id
+   * @param column
+   * @param value
+   */
+  void removeElement(String table, String id, String column, Field field, Object value)
+  {
+    String v = value == null ? NULL : value.toString();
+    if (isSet(field))
+    {
+      setMembers(keyForField(table, id, column), 'r', v);
+    } else
+    {
+      pipe(keyForField(table, id, column)).lrem(keyForField(table, id, column), 0, v);
+    }
+  }
+
+  /**
+   * pipeline the add or remove of members of a set field with the set script
+   * (a field still stored as a list is turned into a set),sent on flush like
+   * the other mutations
+   *
+   * @param key
+   * @param op 'a' add,'r' remove
+   * @param members
+   */
+  private void setMembers(String key, char op, String... members)
+  {
+    List<byte[]> args = new ArrayList<>(members.length + 1);
+    args.add(String.valueOf(op).getBytes(UTF8));
+    for (String m : members)
+    {
+      args.add(m.getBytes(UTF8));
+    }
+    queue(Script.SET, key, args);
+  }
+
+  /**
+   * is a value in a collection field (SISMEMBER for a set)
+   *
+   * @param table
+   * @param id
+   * @param column
+   * @param field
+   * @param value
+   * @return
+   * @throws UnsupportedEncodingException
+   */
+  boolean contains(String table, String id, String column, Field field, Object value) throws UnsupportedEncodingException
+  {
+    String key = keyForField(table, id, column);
+    String v = value == null ? NULL : value.toString();
+    if (isSet(field))
+    {
+      Response<Boolean> r = readPipe(key).sismember(key, v);
+      sync();
+      try
+      {
+        return r.get();
+      } catch (JedisDataException e)
+      {
+        if (e.getMessage() == null || !e.getMessage().startsWith("WRONGTYPE"))
+        {
+          throw e;
+        }
+      }
+    }
+    Response r = readFuture(table, id, column, field);
+    sync();
+    return members(r, key).contains(v);
+  }
+
+  /**
+   * put an entry of a map
+   *
+   * @param table
+   * @param id
+   * @param column
+   * @param k
+   * @param v
+   */
+  void putEntry(String table, String id, String column, Object k, Object v)
+  {
+    pipe(keyForField(table, id, column)).hset(keyForField(table, id, column), k.toString(), v == null ? NULL : v.toString());
+  }
+
+  /**
+   * remove entries of a map
+   *
+   * @param table
+   * @param id
+   * @param column
+   * @param ks
+   */
+  void removeEntries(String table, String id, String column, Object[] ks)
+  {
+    String[] fs = new String[ks.length];
+    for (int i = 0; i < fs.length; i++)
+    {
+      fs[i] = ks[i].toString();
     }
+    pipe(keyForField(table, id, column)).hdel(keyForField(table, id, column), fs);
   }
 
   /**
@@ -348,38 +1128,56 @@ public class RedisFacade
   {
     if (Collection.class.isAssignableFrom(field.getType()) || Map.class.isAssignableFrom(field.getType()))
     {
-      pipe.del(keyForField(table, id, column));
+      pipe(keyForField(table, id, column)).del(keyForField(table, id, column));
     }
     Value annotation = field.getAnnotation(Value.class);
     if (annotation != null && annotation.sort())
     {
-      pipe.zrem(keyForSorted(table, column), String.valueOf(id));
+      pipe(keyForSorted(table, column)).zrem(keyForSorted(table, column), String.valueOf(id));
     }
   }
 
   void delete(String table, String id)
   {
-    pipe.del(keyForAllField(table, id));
+    pipe(keyForAllField(table, id)).del(keyForAllField(table, id));
   }
 
   long incr(String s)
   {
-    return je.incr(s);
+    return jedis(s).incr(s);
   }
 
   boolean exists(String table, String id)
   {
-    return je.exists(keyForAllField(table, id));
+    return readJedis(keyForAllField(table, id)).exists(keyForAllField(table, id));
   }
 
   boolean uniqueExists(String table, String column, String v)
   {
-    return je.exists(keyForUnique(table, column, v));
+    return readJedis(keyForUnique(table, column, v)).exists(keyForUnique(table, column, v));
+  }
+
+  /**
+   * start a transaction in the pipeline
+   */
+  void multi()
+  {
+    pipe(null).multi();
+  }
+
+  /**
+   * end the transaction of the pipeline
+   */
+  void exec()
+  {
+    pipe(null).exec();
   }
 
   void flush()
   {
     pipe.sync();
+    pending = false;
+    resend();
   }
 
   /**
@@ -511,12 +1309,30 @@ public class RedisFacade
     Value annotation = f.getAnnotation(Value.class);
     if (annotation != null && annotation.sort())
     {
+      long cap = annotation.size();
+      if (cap > 0)//ranks past the cap are trimmed (maybe not yet)
+      {
+        if (trimSlack > 0 && (start < 0 || end < 0))
+        {
+          long size = Math.min(readJedis(key).zcard(key), cap);
+          start = start < 0 ? Math.max(0, size + start) : start;
+          end = end < 0 ? size + end : end;
+        }
+        if (start >= 0 && end >= 0)
+        {
+          end = Math.min(end, cap - 1);
+          if (start > end)
+          {
+            return new LinkedHashSet<>();
+          }
+        }
+      }
       if (annotation.bigFirst())
       {
-        s = je.zrevrange(key, start, end);
+        s = readJedis(key).zrevrange(key, start, end);
       } else
       {
-        s = je.zrange(key, start, end);
+        s = readJedis(key).zrange(key, start, end);
       }
     }
     return s;
@@ -539,12 +1355,21 @@ public class RedisFacade
     Value annotation = f.getAnnotation(Value.class);
     if (annotation != null && annotation.sort())
     {
-      if (annotation.bigFirst())
+      if (annotation.size() > 0 && trimSlack > 0)//drop the members past the cap
       {
-        s = je.zrevrangeByScore(key, start, end);
+        long before = annotation.bigFirst() ? readJedis(key).zcount(key, "(" + start, "+inf") : readJedis(key).zcount(key, "-inf", "(" + start);
+        int left = (int) Math.max(0, annotation.size() - before);
+        if (left == 0)
+        {
+          return new LinkedHashSet<>();
+        }
+        s = annotation.bigFirst() ? readJedis(key).zrevrangeByScore(key, start, end, 0, left) : readJedis(key).zrangeByScore(key, start, end, 0, left);
+      } else if (annotation.bigFirst())
+      {
+        s = readJedis(key).zrevrangeByScore(key, start, end);
       } else
       {
-        s = je.zrangeByScore(key, start, end);
+        s = readJedis(key).zrangeByScore(key, start, end);
       }
     }
     return s;
@@ -567,15 +1392,169 @@ public class RedisFacade
       String key = this.keyForSorted(table, column);
       if (annotation.bigFirst())
       {
-        index = je.zrevrank(key, id);
+        index = readJedis(key).zrevrank(key, id);
       } else
       {
-        index = je.zrank(key, id);
+        index = readJedis(key).zrank(key, id);
+      }
+      if (index != null && annotation.size() > 0 && index >= annotation.size())
+      {
+        index = null;//past the cap,to be trimmed
       }
     }
     return index == null ? -1L : index;
   }
 
+  /**
+   * size of the sorted set (never more than the cap)
+   *
+   * @param table
+   * @param column
+   * @param f
+   * @return
+   */
+  long rangeSize(String table, String column, Field f)
+  {
+    long size = readJedis(keyForSorted(table, column)).zcard(keyForSorted(table, column));
+    Value annotation = f.getAnnotation(Value.class);
+    return annotation != null && annotation.size() > 0 ? Math.min(size, annotation.size()) : size;
+  }
+
+  /**
+   * when and how to trim a capped sorted key: once it holds more than
+   * size+slack members (counted by the server,so the bound holds for all the
+   * writers together) the ranks past the cap go
+   *
+   * @param annotation
+   * @return the most members and the ranks to trim,null if not capped
+   */
+  private static long[] trimRanks(Value annotation)
+  {
+    if (annotation.size() <= 0)
+    {
+      return null;
+    }
+    long limit = annotation.size() + (long) trimSlack;
+    return annotation.bigFirst() ? new long[]
+    {
+      limit, 0, -annotation.size() - 1
+    } : new long[]
+    {
+      limit, annotation.size(), -1
+    };
+  }
+
+  /**
+   * zadd to a sorted key,trimmed if capped (with a slack by the cap script)
+   *
+   * @param key
+   * @param score
+   * @param member
+   * @param annotation
+   */
+  private void zaddCapped(String key, double score, String member, Value annotation)
+  {
+    long[] trim = trimRanks(annotation);
+    if (trim == null || trim[0] == annotation.size())
+    {
+      pipe(key).zadd(key, score, member);
+      if (trim != null)
+      {
+        pipe(key).zremrangeByRank(key, trim[1], trim[2]);
+      }
+      return;
+    }
+    List<byte[]> args = new ArrayList<>(5);
+    args.add(String.valueOf(score).getBytes(UTF8));
+    args.add(member.getBytes(UTF8));
+    for (long t : trim)
+    {
+      args.add(String.valueOf(t).getBytes(UTF8));
+    }
+    queue(Script.CAP, key, args);
+  }
+
+  /**
+   * pipeline a script of one key with EVALSHA,its reply is read after the
+   * sync
+   *
+   * @param script
+   * @param key
+   * @param args
+   */
+  private void queue(Script script, String key, List<byte[]> args)
+  {
+    List<byte[]> keys = Collections.singletonList(key.getBytes(UTF8));
+    queued.add(new Queued(script, key, keys, args, pipe(key).evalsha(script.sha, keys, args)));
+  }
+
+  /**
+   * send again with EVAL the scripts pipelined the server did not know
+   */
+  void resend()
+  {
+    if (queued.isEmpty())
+    {
+      return;
+    }
+    List<Queued> sent = new ArrayList<>(queued);
+    queued.clear();
+    boolean again = false;
+    for (Queued q : sent)
+    {
+      if (isNoScript(q.reply))
+      {
+        pipe(q.key).eval(q.script.body, q.keys, q.args);
+        again = true;
+      }
+    }
+    if (again)
+    {
+      sync();
+    }
+  }
+
+  /**
+   * a script pipelined waiting for its reply
+   */
+  static final class Queued
+  {
+
+    private final Script script;
+    private final String key;
+    private final List<byte[]> keys;
+    private final List<byte[]> args;
+    private final Response<Object> reply;
+
+    Queued(Script script, String key, List<byte[]> keys, List<byte[]> args, Response<Object> reply)
+    {
+      this.script = script;
+      this.key = key;
+      this.keys = keys;
+      this.args = args;
+      this.reply = reply;
+    }
+  }
+
+  /**
+   * trim a capped sorted key now
+   *
+   * @param table
+   * @param column
+   * @param annotation
+   */
+  void trim(String table, String column, Value annotation)
+  {
+    String key = keyForSorted(table, column);
+    if (annotation.bigFirst())
+    {
+      pipe(key).zremrangeByRank(key, 0, -annotation.size() - 1);
+    } else
+    {
+      pipe(key).zremrangeByRank(key, annotation.size(), -1);
+    }
+  }
+
   boolean writeUnique(Object entity, Field unique, String table, String column, String id)
   {
     Object v;
@@ -590,10 +1569,37 @@ public class RedisFacade
     {
       return false;
     }
-    long r = je.setnx(keyForUnique(table, column, v.toString()), id);
+    String key = keyForUnique(table, column, v.toString());
+    long r = jedis(key).setnx(key, id);
     return r == 1;
   }
 
+  /**
+   * reserve unique values in one pipeline
+   *
+   * @param table
+   * @param column
+   * @param values
+   * @param ids
+   * @return reserved or not (a value taken,or given twice,is not)
+   */
+  boolean[] writeUniques(String table, String column, List<Object> values, List<String> ids)
+  {
+    List<Response<Long>> rs = new ArrayList<>(values.size());
+    for (int i = 0; i < values.size(); i++)
+    {
+      String key = keyForUnique(table, column, values.get(i).toString());
+      rs.add(pipe(key).setnx(key, ids.get(i)));
+    }
+    sync();
+    boolean[] r = new boolean[rs.size()];
+    for (int i = 0; i < r.length; i++)
+    {
+      r[i] = rs.get(i).get() == 1;
+    }
+    return r;
+  }
+
   /**
    * get the future
    *
@@ -604,18 +1610,21 @@ public class RedisFacade
    */
   Response readFuture(String table, String id, String column, Field field) throws UnsupportedEncodingException
   {
-    if (Collection.class.isAssignableFrom(field.getType()))
+    if (isSet(field))
+    {
+      return readPipe(keyForField(table, id, column)).smembers(keyForField(table, id, column));
+    } else if (Collection.class.isAssignableFrom(field.getType()))
     {
-      return pipe.lrange(keyForField(table, id, column), 0, -1);
+      return readPipe(keyForField(table, id, column)).lrange(keyForField(table, id, column), 0, -1);
     } else if (Map.class.isAssignableFrom(field.getType()))
     {
-      return pipe.hgetAll(keyForField(table, id, column));
+      return readPipe(keyForField(table, id, column)).hgetAll(keyForField(table, id, column));
     } else if (field.getType() == byte[].class)
     {
-      return pipe.hget(keyForAllField(table, id).getBytes("UTF-8"), column.getBytes("UTF-8"));
+      return readPipe(keyForAllField(table, id)).hget(keyForAllField(table, id).getBytes("UTF-8"), column.getBytes("UTF-8"));
     } else
     {
-      return pipe.hget(keyForAllField(table, id), column);
+      return readPipe(keyForAllField(table, id)).hget(keyForAllField(table, id), column);
     }
   }
 
@@ -626,6 +1635,8 @@ public class RedisFacade
   void sync()
   {
     this.pipe.sync();
+    pending = false;
+    resend();
   }
 
   static Collection initCollectionHolder(Field field)
@@ -657,12 +1668,34 @@ public class RedisFacade
   {
     try
     {
-      pipe.del(keyForUnique(table, column, unique.get(entity).toString()));
+      String key = keyForUnique(table, column, unique.get(entity).toString());
+      pipe(key).del(key);
     } catch (Exception e)
     {
     }
   }
 
+  /**
+   * give back a unique value reserved by id (a failed commit),at once and
+   * out of the pipeline
+   *
+   * @param entity
+   * @param unique
+   * @param table
+   * @param column
+   * @param id
+   * @throws Exception
+   */
+  void releaseUnique(Object entity, Field unique, String table, String column, String id) throws Exception
+  {
+    Object v = unique.get(entity);
+    if (v != null)
+    {
+      String key = keyForUnique(table, column, v.toString());
+      jedis(key).eval(Script.RELEASE.body, 1, key.getBytes(UTF8), id.getBytes(UTF8));
+    }
+  }
+
   /**
    * delete index
    *
@@ -673,7 +1706,7 @@ public class RedisFacade
    */
   void deleteIndex(String table, String column, String v, String id)
   {
-    pipe.zrem(keyForIndex(table, column, v), String.valueOf(id));
+    pipe(keyForIndex(table, column, v)).zrem(keyForIndex(table, column, v), String.valueOf(id));
   }
 
   /**
@@ -687,7 +1720,7 @@ public class RedisFacade
   long indexSize(String table, String column, Object v)
   {
     String key = keyForIndex(table, column, v.toString());
-    return je.zcard(key);
+    return readJedis(key).zcard(key);
   }
 
   /**
@@ -701,14 +1734,14 @@ public class RedisFacade
   Set<String> index(String table, String column, Object v, long start, long end)
   {
     String key = keyForIndex(table, column, v.toString());
-    Set<String> set = je.zrange(key, start, end);
+    Set<String> set = readJedis(key).zrange(key, start, end);
     return set;
   }
 
   String unique(String table, String column, String v)
   {
     String key = this.keyForUnique(table, column, v);
-    return je.get(key);
+    return readJedis(key).get(key);
   }
 
   /**
@@ -720,7 +1753,7 @@ public class RedisFacade
   Set<String> all(String table, long start, long end)
   {
     String key = keyForAll(table);
-    return je.zrange(key, start, end);
+    return readJedis(key).zrange(key, start, end);
   }
 
   /**
@@ -732,7 +1765,7 @@ public class RedisFacade
    */
   Set<String> keys(String table)
   {
-    return je.keys(table + "*");
+    return jedis(null).keys(table + "*");
   }
 
   /**
@@ -744,10 +1777,10 @@ public class RedisFacade
    */
   void delKeys(String table)
   {
-    Set<String> ks = je.keys(table + "*");
+    Set<String> ks = keys(table);
     String[] kks = new String[ks.size()];
     ks.toArray(kks);
-    je.del(kks);
+    jedis(null).del(kks);
   }
 
   /**
@@ -761,7 +1794,43 @@ public class RedisFacade
   Set<String> all(String table, Date start, Date end)
   {
     String key = keyForAll(table);
-    return je.zrangeByScore(key, start == null ? 0 : start.getTime(), end == null ? System.currentTimeMillis() : end.getTime());
+    return readJedis(key).zrangeByScore(key, start == null ? 0 : start.getTime(), end == null ? System.currentTimeMillis() : end.getTime());
+  }
+
+  /**
+   * a page of the entities created from a time (keyset paging,redis skips
+   * only the ids of that time already seen)
+   *
+   * @param table
+   * @param from time of the last id seen (or the start)
+   * @param end
+   * @param skip ids with the time from already seen
+   * @param count
+   * @return ids and their create time
+   */
+  Set<Tuple> all(String table, double from, double end, int skip, int count)
+  {
+    String key = keyForAll(table);
+    return readJedis(key).zrangeByScoreWithScores(key, from, end, skip, count);
+  }
+
+  /**
+   * scan the ids of table (ids present during the whole scan are all returned)
+   *
+   * @param table
+   * @param cursor "0" to start
+   * @param count
+   * @param dest
+   * @return the next cursor,"0" means the end
+   */
+  String scanIds(String table, String cursor, int count, Collection<String> dest)
+  {
+    ScanResult<Tuple> r = readJedis(keyForAll(table)).zscan(keyForAll(table), cursor, new ScanParams().count(count));
+    for (Tuple t : r.getResult())
+    {
+      dest.add(t.getElement());
+    }
+    return r.getStringCursor();
   }
 
   /**
@@ -773,25 +1842,25 @@ public class RedisFacade
   long allSize(String table)
   {
     String key = keyForAll(table);
-    return je.zcard(key);
+    return readJedis(key).zcard(key);
   }
 
   void addId(String table, String id)
   {
     String key = keyForAll(table);
-    pipe.zadd(key, System.currentTimeMillis(), id);
+    pipe(key).zadd(key, System.currentTimeMillis(), id);
   }
 
   void deleteId(String table, String id)
   {
     String key = keyForAll(table);
-    pipe.zrem(key, id);
+    pipe(key).zrem(key, id);
   }
 
   Date createTime(String table, String id)
   {
     String key = keyForAll(table);
-    Double d = je.zscore(key, id);
+    Double d = readJedis(key).zscore(key, id);
     if (d != null)
     {
       return new Date((long) (double) d);
@@ -803,12 +1872,22 @@ public class RedisFacade
   {
     return je;
   }
-/**
- * reset status
- */
+  /**
+   * reset status
+   */
   void reset()
   {
-   je.resetState();
+    je.resetState();
+    pending = false;
+    queued.clear();
+  }
+
+  /**
+   * close the connection (a pooled one returns to its pool)
+   */
+  void close()
+  {
+    je.close();
   }
 
 }
@@ -0,0 +1,345 @@
+/**
+ * replica facade
+ */
+package org.rojo.repository;
+
+import java.lang.reflect.Field;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import org.rojo.exceptions.RojoException;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.Pipeline;
+
+/**
+ * A facade on a master and a replica: writes and the reads of entities in
+ * their window go to the master,other reads to the replica (each connection
+ * is borrowed when first needed,a facade only reading from a replica holds
+ * no master connection). The window of an entity starts when its writes are synced.
+ * A hedged read of an entity runs on connections of its own,the loser
+ * returns its connection when its reply comes.
+ *
+ * @author beykery
+ */
+final class ReplicaFacade extends RedisFacade
+{
+
+  private static final ExecutorService HEDGES = new ThreadPoolExecutor(0, Integer.parseInt(System.getProperty("rojo.hedge.threads", "64")), 60, TimeUnit.SECONDS, new SynchronousQueue<Runnable>(), new ThreadFactory()
+  {
+    @Override
+    public Thread newThread(Runnable r)
+    {
+      Thread t = new Thread(r, "rojo-hedged-read");
+      t.setDaemon(true);
+      return t;
+    }
+  });
+  private static final Object ABSENT = new Object();
+  private final RojoReplicas replicas;
+  private final Set<String> unsynced = new LinkedHashSet<>();//entities written,not synced yet
+  private Jedis master;
+  private Pipeline masterPipe;
+  private boolean masterPending;
+  private Jedis replica;
+  private Pipeline replicaPipe;
+  private boolean replicaPending;
+
+  ReplicaFacade(RojoReplicas replicas)
+  {
+    this.replicas = replicas;
+  }
+
+  @Override
+  Pipeline pipe(String key)
+  {
+    String entity = key == null ? null : entityOf(key);
+    if (entity != null)
+    {
+      unsynced.add(entity);
+    }
+    return masterPipe();
+  }
+
+  @Override
+  Jedis jedis(String key)
+  {
+    return master();
+  }
+
+  @Override
+  Pipeline readPipe(String key)
+  {
+    if (isMaster(key))
+    {
+      return masterPipe();
+    }
+    replica();
+    replicaPending = true;
+    return replicaPipe;
+  }
+
+  @Override
+  Jedis readJedis(String key)
+  {
+    return isMaster(key) ? master() : replica();
+  }
+
+  /**
+   * read key from the master
+   *
+   * @param key
+   * @return
+   */
+  private boolean isMaster(String key)
+  {
+    return (!unsynced.isEmpty() && unsynced.contains(entityOf(key))) || replicas.isFresh(key);
+  }
+
+  @Override
+  <T> boolean processFields(T entity, EntityRepresentation representation, String id) throws Exception
+  {
+    if (!replicas.isHedged() || isMaster(keyForAllField(representation.getTable(), id)))
+    {
+      return super.processFields(entity, representation, id);
+    }
+    return hedge(entity, representation, id, false);
+  }
+
+  @Override
+  <T> boolean processScript(T entity, EntityRepresentation representation, String id) throws Exception
+  {
+    if (!replicas.isHedged() || isMaster(keyForAllField(representation.getTable(), id)))
+    {
+      return super.processScript(entity, representation, id);
+    }
+    return hedge(entity, representation, id, true);
+  }
+
+  /**
+   * read an entity from a replica,and from another node too if the reply is
+   * late or failed. With all the hedging threads busy the read is not hedged.
+   *
+   * @param <T>
+   * @param entity
+   * @param representation
+   * @param id
+   * @param script
+   * @return false if the entity does not exist
+   * @throws Exception
+   */
+  private <T> boolean hedge(T entity, EntityRepresentation representation, String id, boolean script) throws Exception
+  {
+    CompletionService<Object> reads = new ExecutorCompletionService<>(HEDGES);
+    int i = replicas.next();
+    if (!submit(reads, replicas.replica(i), entity.getClass(), representation, id, script))
+    {
+      return script ? super.processScript(entity, representation, id) : super.processFields(entity, representation, id);
+    }
+    int left = 1;
+    Future<Object> f = reads.poll(replicas.hedgeDelay(), TimeUnit.NANOSECONDS);
+    boolean hedged = f == null && submit(reads, replicas.hedge(i), entity.getClass(), representation, id, script);
+    if (hedged)
+    {
+      left++;
+    }
+    Throwable failure = null;
+    while (left-- > 0)
+    {
+      if (f == null)
+      {
+        f = reads.take();
+      }
+      try
+      {
+        Object read = f.get();
+        if (read == ABSENT)
+        {
+          return false;
+        }
+        for (Field field : representation.getFields())
+        {
+          field.set(entity, field.get(read));
+        }
+        return true;
+      } catch (ExecutionException e)
+      {
+        failure = e.getCause();
+        if (!hedged && submit(reads, replicas.hedge(i), entity.getClass(), representation, id, script))
+        {
+          hedged = true;
+          left++;
+        }
+      }
+      f = null;
+    }
+    throw failure instanceof Exception ? (Exception) failure : new RojoException(failure);
+  }
+
+  /**
+   * submit a read
+   *
+   * @param reads
+   * @param pool
+   * @param claz
+   * @param representation
+   * @param id
+   * @param script
+   * @return false if the hedging threads are all busy
+   */
+  private boolean submit(CompletionService<Object> reads, JedisPool pool, Class<?> claz, EntityRepresentation representation, String id, boolean script)
+  {
+    try
+    {
+      reads.submit(read(pool, claz, representation, id, script));
+      return true;
+    } catch (RejectedExecutionException e)
+    {
+      return false;
+    }
+  }
+
+  /**
+   * the read of an entity on a connection of its own
+   *
+   * @param pool
+   * @param claz
+   * @param representation
+   * @param id
+   * @param script
+   * @return
+   */
+  private Callable<Object> read(final JedisPool pool, final Class<?> claz, final EntityRepresentation representation, final String id, final boolean script)
+  {
+    return new Callable<Object>()
+    {
+      @Override
+      public Object call() throws Exception
+      {
+        long start = System.nanoTime();
+        Object entity = claz.newInstance();
+        representation.setId(entity, id);
+        RedisFacade facade = new RedisFacade(pool.getResource());
+        try
+        {
+          boolean exists = script ? facade.processScript(entity, representation, id) : facade.processFields(entity, representation, id);
+          replicas.latency(System.nanoTime() - start);
+          return exists ? entity : ABSENT;
+        } catch (Exception e)
+        {
+          facade.reset();
+          throw e;
+        } finally
+        {
+          facade.close();
+        }
+      }
+    };
+  }
+
+  private Jedis master()
+  {
+    if (master == null)
+    {
+      master = replicas.getMaster().getResource();
+      masterPipe = master.pipelined();
+    }
+    return master;
+  }
+
+  private Pipeline masterPipe()
+  {
+    master();
+    masterPending = true;
+    return masterPipe;
+  }
+
+  private Jedis replica()
+  {
+    if (replica == null)
+    {
+      replica = replicas.replica().getResource();
+      replicaPipe = replica.pipelined();
+    }
+    return replica;
+  }
+
+  @Override
+  boolean isPending()
+  {
+    return masterPending || replicaPending;
+  }
+
+  @Override
+  void sync()
+  {
+    if (masterPending)
+    {
+      masterPipe.sync();
+      masterPending = false;
+      if (!unsynced.isEmpty())
+      {
+        replicas.written(unsynced);
+        unsynced.clear();
+      }
+    }
+    if (replicaPending)
+    {
+      replicaPending = false;
+      replicaPipe.sync();
+    }
+    resend();
+  }
+
+  @Override
+  void flush()
+  {
+    sync();
+  }
+
+  @Override
+  void reset()
+  {
+    if (master != null)
+    {
+      master.resetState();
+      masterPipe = master.pipelined();
+    }
+    masterPending = false;
+    unsynced.clear();
+    queued.clear();
+    if (replica != null)
+    {
+      replica.resetState();
+      replicaPipe = replica.pipelined();
+    }
+    replicaPending = false;
+  }
+
+  @Override
+  void close()
+  {
+    if (master != null)
+    {
+      master.close();
+      master = null;
+      masterPipe = null;
+    }
+    if (replica != null)
+    {
+      replica.close();
+      replica = null;
+      replicaPipe = null;
+    }
+  }
+}
@@ -6,28 +6,74 @@ import java.lang.reflect.Constructor;
 import org.rojo.util.CacheoutListerner;
 import org.rojo.util.SoftCache;
 import java.lang.reflect.Field;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import org.rojo.annotations.Index;
+import org.rojo.annotations.Value;
+import org.rojo.exceptions.InvalidTypeException;
 import org.rojo.exceptions.RepositoryError;
+import org.rojo.util.BatchCache;
+import org.rojo.util.BloomFilter;
 import org.rojo.util.Cache;
+import org.rojo.util.NegativeCache;
+import org.rojo.util.SingleFlight;
 import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.Response;
+import redis.clients.jedis.Tuple;
 
 public class Rojo
 {
 
   private static final Logger LOG = Logger.getLogger(Rojo.class.getName());
-  private final RedisFacade store;
+  private final RedisFacade store;//one connection
+  private final JedisPool pool;//or a pool
+  private final Backend backend;//where pooled stores come from
+  private final ThreadLocal<RedisFacade> bound = new ThreadLocal<>();//store borrowed by current thread
   private static Cache cache;
+  private static volatile NegativeCache negativeCache;//ids known to be absent
+  private static volatile Snapshots snapshots;//field fingerprints for dirty tracking
+  private final ConcurrentHashMap<String, BloomFilter> blooms = new ConcurrentHashMap<>();//table -> ids
+  private final Set<String> seeding = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());//tables being seeded
+  private volatile boolean soleWriter = Boolean.parseBoolean(System.getProperty("rojo.sole.writer", "false"));//bloom filters used?
+  private static final int BLOOM_SEED_PAGE = 10000;
+  private static final int BLOOM_SEED_STEP = 1000;//ids scanned per read seeding step by step
+  private final Map<String, String> seedCursors = new ConcurrentHashMap<>();//table -> scan cursor of a seeding step by step
+  private static final ExecutorService SEEDS = Executors.newSingleThreadExecutor(new ThreadFactory()
+  {
+    @Override
+    public Thread newThread(Runnable r)
+    {
+      Thread t = new Thread(r, "rojo-bloom-seed");
+      t.setDaemon(true);
+      return t;
+    }
+  });
+  private static final SingleFlight<String, Object> FLIGHTS = new SingleFlight<>();//loads in flight
   private static int TIMES_CACHE_CLEAR;
   private static volatile long read;
   private static volatile long write;
   private static volatile boolean cacheable;//cache?
+  private static volatile boolean scriptRead;//read entities with lua script?
+  private static volatile boolean scriptSave;//save entities with lua script?
+  private static int BATCH_SIZE = 500;//ids per pipeline when loading in bulk
+  private static int SAVE_CHUNK = 1000;//entities per pipeline when saving in bulk
 
   static
   {
@@ -35,12 +81,42 @@ public class Rojo
      * defaultGenerator init*
      */
     new DefaultGenerator().configue("defaultGenerator");
+    int block = property("rojo.id.block", 1000, 1);
+    new BlockGenerator(block, block / 4, null).configue("blockGenerator");
+    if (System.getProperty("rojo.node.id") == null)
+    {
+      LOG.log(Level.INFO, "rojo.node.id is not set,snowflakeGenerator is not registered");
+    } else
+    {
+      try
+      {
+        new SnowflakeGenerator().configue("snowflakeGenerator");
+      } catch (Exception e)
+      {
+        LOG.log(Level.SEVERE, "bad rojo.node.id,snowflakeGenerator is not registered :{0}", e.getMessage());
+      }
+    }
+    BATCH_SIZE = property("rojo.batch.size", BATCH_SIZE, 1);
+    SAVE_CHUNK = property("rojo.save.chunk", SAVE_CHUNK, 1);
+    RedisFacade.trimSlack = property("rojo.trim.slack", 0, 0);
     try
     {
       TIMES_CACHE_CLEAR = Integer.parseInt(System.getProperty("rojo.times.cache.clear", "15000"));
       cacheable = Boolean.parseBoolean(System.getProperty("rojo.cacheable", "false"));
+      scriptRead = Boolean.parseBoolean(System.getProperty("rojo.script.read", "false"));
+      scriptSave = Boolean.parseBoolean(System.getProperty("rojo.script.save", "false"));
+      if (Boolean.parseBoolean(System.getProperty("rojo.dirty.tracking", "false")))
+      {
+        snapshots = new Snapshots(Integer.parseInt(System.getProperty("rojo.dirty.size", "100000")));
+      }
       String impl = System.getProperty("rojo.cache.impl", "org.rojo.util.LruCache");
       int size = Integer.parseInt(System.getProperty("rojo.cache.size", "150000"));
+      if (Boolean.parseBoolean(System.getProperty("rojo.negative.cache", "false")))
+      {
+        int negativeSize = Integer.parseInt(System.getProperty("rojo.negative.size", "10000"));
+        long negativeTtl = Long.parseLong(System.getProperty("rojo.negative.ttl", "5000"));
+        negativeCache = new NegativeCache(negativeSize, negativeTtl);
+      }
       if (cacheable)
       {
         Class c = Class.forName(impl);
@@ -57,14 +133,192 @@ public class Rojo
     }
   }
 
+  /**
+   * an int property
+   *
+   * @param property
+   * @param value the default
+   * @param min the least value
+   * @return the default if the property is missing,bad or under min
+   */
+  static int property(String property, int value, int min)
+  {
+    String v = System.getProperty(property);
+    if (v == null)
+    {
+      return value;
+    }
+    try
+    {
+      int p = Integer.parseInt(v.trim());
+      if (p >= min)
+      {
+        return p;
+      }
+    } catch (NumberFormatException e)
+    {
+    }
+    LOG.log(Level.WARNING, "bad {0},{1} will be applied", new Object[]
+    {
+      property, value
+    });
+    return value;
+  }
+
+  /**
+   * a repository on one connection (not thread safe)
+   *
+   * @param je
+   */
   public Rojo(Jedis je)
   {
     store = new RedisFacade(je);
+    pool = null;
+    backend = null;
+  }
+
+  /**
+   * a thread safe repository,every thread borrows a connection for an
+   * operation (or until flush if it has pipelined writes) and gives it back
+   *
+   * @param pool
+   */
+  public Rojo(final JedisPool pool)
+  {
+    store = null;
+    this.pool = pool;
+    this.backend = new Backend()
+    {
+      @Override
+      public RedisFacade open()
+      {
+        return new RedisFacade(pool.getResource());
+      }
+    };
+    prefetchIds(backend);
+  }
+
+  /**
+   * a thread safe repository on a redis cluster,every thread borrows the
+   * connections of the nodes it uses for an operation
+   *
+   * @param cluster
+   */
+  public Rojo(RojoCluster cluster)
+  {
+    store = null;
+    pool = null;
+    backend = cluster;
+    prefetchIds(backend);
+  }
+
+  /**
+   * a thread safe repository on standalone shards,the entities are spread
+   * by consistent hashing,the keys of the tables are on the global node
+   *
+   * @param shards
+   */
+  public Rojo(RojoShards shards)
+  {
+    store = null;
+    pool = null;
+    backend = shards;
+    prefetchIds(backend);
+  }
+
+  /**
+   * a thread safe repository reading from replicas,writes go to the master
+   *
+   * @param replicas
+   */
+  public Rojo(RojoReplicas replicas)
+  {
+    store = null;
+    pool = null;
+    backend = replicas;
+    prefetchIds(backend);
+  }
+
+  /**
+   * a thread safe repository sharing one connection between the threads
+   *
+   * @param mux
+   */
+  public Rojo(RojoMux mux)
+  {
+    store = null;
+    pool = null;
+    backend = mux;
+    prefetchIds(backend);
+  }
+
+  /**
+   * let the registered block generator prefetch its blocks on backend
+   *
+   * @param backend
+   */
+  private static void prefetchIds(Backend backend)
+  {
+    IdGenerator g = IdGenerator.getGenerator("blockGenerator");
+    if (g instanceof BlockGenerator)
+    {
+      ((BlockGenerator) g).prefetchFrom(backend);
+    }
   }
 
+  /**
+   * the jedis of a repository on one connection
+   *
+   * @return null if the repository is pooled
+   */
   public Jedis getJedis()
   {
-    return store.getJedis();
+    return store == null ? null : store.getJedis();
+  }
+
+  public JedisPool getPool()
+  {
+    return pool;
+  }
+
+  /**
+   * the store of current thread
+   *
+   * @return
+   */
+  private RedisFacade store()
+  {
+    if (backend == null)
+    {
+      return store;
+    }
+    RedisFacade facade = bound.get();
+    if (facade == null)
+    {
+      facade = backend.open();
+      bound.set(facade);
+    }
+    facade.refs++;
+    return facade;
+  }
+
+  /**
+   * give back the store,a pooled connection returns to the pool when it has
+   * no pipelined commands waiting for flush
+   *
+   * @param facade
+   */
+  private void release(RedisFacade facade)
+  {
+    if (backend == null)
+    {
+      return;
+    }
+    if (--facade.refs == 0 && !facade.isPending())
+    {
+      bound.remove();
+      facade.close();
+    }
   }
 
   public static void setCache(Cache cache)
@@ -88,24 +342,126 @@ public class Rojo
    */
   public <T> Set<T> all(Class<T> c, long start, long end)
   {
+    RedisFacade facade = store();
     try
     {
       EntityRepresentation representation = EntityRepresentation.forClass(c);
       String table = representation.getTable();
-      Set<String> s = store.all(table, start, end);
+      Set<String> s = facade.all(table, start, end);
       read++;
-      Set<T> r = new LinkedHashSet<>(s.size());
-      for (String item : s)
-      {
-        r.add(this.get(c, item));
-      }
-      return r;
+      return new LinkedHashSet<>(this.getAll(c, s));
     } catch (Exception e)
     {
-      store.reset();
+      facade.reset();
       LOG.log(Level.SEVERE, "rojo error :{0}", stackTrace(e));
       return null;
+    } finally
+    {
+      release(facade);
+    }
+  }
+
+  /**
+   * iterate the entities of ranking from start to end lazily (order by create
+   * time asc)
+   *
+   * @param <T>
+   * @param c
+   * @param start index of zset
+   * @param end index of zset
+   * @param chunk ids loaded per batch
+   * @return
+   */
+  public <T> Iterator<T> iterate(Class<T> c, long start, long end, int chunk)
+  {
+    EntityRepresentation representation = EntityRepresentation.forClass(c);
+    final String table = representation.getTable();
+    final long[] ranks = ranks(start, end, start < 0 || end < -1 ? allSize(c) : 0);
+    if (ranks == null)
+    {
+      return Collections.emptyIterator();
     }
+    return new EntityIterator<T>(this, c, chunk)
+    {
+      @Override
+      Collection<String> page(long offset, int count)
+      {
+        long[] page = EntityIterator.rankPage(ranks[0], ranks[1], offset, count);
+        if (page == null)
+        {
+          return Collections.emptySet();
+        }
+        RedisFacade facade = store();
+        try
+        {
+          read++;
+          return facade.all(table, page[0], page[1]);
+        } catch (Exception e)
+        {
+          facade.reset();
+          LOG.log(Level.SEVERE, "rojo error :{0}", stackTrace(e));
+          throw new RepositoryError(e);
+        } finally
+        {
+          release(facade);
+        }
+      }
+    };
+  }
+
+  /**
+   * iterate the entities create between start and end lazily,a page starts
+   * from the create time of the last id seen (no offset to skip)
+   *
+   * @param <T>
+   * @param c
+   * @param start time of created
+   * @param end time of created
+   * @param chunk ids loaded per batch
+   * @return
+   */
+  public <T> Iterator<T> iterate(Class<T> c, final Date start, final Date end, int chunk)
+  {
+    EntityRepresentation representation = EntityRepresentation.forClass(c);
+    final String table = representation.getTable();
+    final double until = end == null ? System.currentTimeMillis() : end.getTime();
+    return new EntityIterator<T>(this, c, chunk)
+    {
+      private double from = start == null ? 0 : start.getTime();//time of the last id seen
+      private int ties;//ids seen with the time from
+
+      @Override
+      Collection<String> page(long offset, int count)
+      {
+        RedisFacade facade = store();
+        try
+        {
+          read++;
+          List<String> ids = new ArrayList<>(count);
+          for (Tuple t : facade.all(table, from, until, ties, count))
+          {
+            ids.add(t.getElement());
+            if (t.getScore() == from)
+            {
+              ties++;
+            } else
+            {
+              from = t.getScore();
+              ties = 1;
+            }
+          }
+          return ids;
+        } catch (Exception e)
+        {
+          facade.reset();
+          LOG.log(Level.SEVERE, "rojo error :{0}", stackTrace(e));
+          throw new RepositoryError(e);
+        } finally
+        {
+          release(facade);
+        }
+      }
+    };
   }
 
   /**
@@ -118,18 +474,22 @@ public class Rojo
    */
   public long allSize(Class c, Date start, Date end)
   {
+    RedisFacade facade = store();
     try
     {
       EntityRepresentation representation = EntityRepresentation.forClass(c);
       String table = representation.getTable();
-      Set<String> s = store.all(table, start, end);
+      Set<String> s = facade.all(table, start, end);
       read++;
       return s.size();
     } catch (Exception e)
     {
-      store.reset();
+      facade.reset();
       LOG.log(Level.SEVERE, "rojo error :{0}", stackTrace(e));
       return -1;
+    } finally
+    {
+      release(facade);
     }
   }
 
@@ -141,18 +501,22 @@ public class Rojo
    */
   public long allSize(Class c)
   {
+    RedisFacade facade = store();
     try
     {
       EntityRepresentation representation = EntityRepresentation.forClass(c);
       String table = representation.getTable();
-      long l = store.allSize(table);
+      long l = facade.allSize(table);
       read++;
       return l;
     } catch (Exception e)
     {
-      store.reset();
+      facade.reset();
       LOG.log(Level.SEVERE, "rojo error :{0}", stackTrace(e));
       return -1;
+    } finally
+    {
+      release(facade);
     }
   }
 
@@ -167,23 +531,22 @@ public class Rojo
    */
   public <T> Set<T> all(Class<T> c, Date start, Date end)
   {
+    RedisFacade facade = store();
     try
     {
       EntityRepresentation representation = EntityRepresentation.forClass(c);
       String table = representation.getTable();
-      Set<String> s = store.all(table, start, end);
+      Set<String> s = facade.all(table, start, end);
       read++;
-      Set<T> r = new LinkedHashSet<>(s.size());
-      for (String item : s)
-      {
-        r.add(this.get(c, item));
-      }
-      return r;
+      return new LinkedHashSet<>(this.getAll(c, s));
     } catch (Exception e)
     {
-      store.reset();
+      facade.reset();
       LOG.log(Level.SEVERE, "rojo error :{0}", stackTrace(e));
       return null;
+    } finally
+    {
+      release(facade);
     }
   }
 
@@ -196,24 +559,35 @@ public class Rojo
    */
   public Date createTime(Class c, String id)
   {
+    RedisFacade facade = store();
     try
     {
       EntityRepresentation representation = EntityRepresentation.forClass(c);
       String table = representation.getTable();
       read++;
-      return store.createTime(table, id);
+      return facade.createTime(table, id);
     } catch (Exception e)
     {
-      store.reset();
+      facade.reset();
       LOG.log(Level.SEVERE, "rojo error :{0}", stackTrace(e));
       return null;
+    } finally
+    {
+      release(facade);
     }
   }
 
   public void flush()
   {
-    store.flush();
-    write++;
+    RedisFacade facade = store();
+    try
+    {
+      facade.flush();
+      write++;
+    } finally
+    {
+      release(facade);
+    }
   }
 
   public String saveAndFlush(Object entity)
@@ -221,8 +595,8 @@ public class Rojo
     String id;
     if ((id = save(entity)) != null)
     {
-      store.flush();
-      write++;
+      flush();
+      forgetAbsent(entity.getClass(), id);
       EntityRepresentation representation = EntityRepresentation.forClass(entity.getClass());
       if (Rojo.cacheable && representation.isCacheable())
       {
@@ -233,651 +607,2034 @@ public class Rojo
   }
 
   /**
-   * write an entity
+   * save entities in bulk,chunk by chunk (rojo.save.chunk entities per
+   * pipeline)
    *
-   * @param entity
-   * @return
+   * @param entities
+   * @return entities not saved (no id or unique value taken)
    */
-  private String save(Object entity)
+  public List<Object> saveAll(Collection<?> entities)
+  {
+    return saveAll(entities, SAVE_CHUNK);
+  }
+
+  /**
+   * save entities in bulk. For every chunk the auto ids are allocated in one
+   * block per class,the unique values are reserved in one pipeline and the
+   * accepted entities are written in one pipeline.
+   *
+   * @param entities
+   * @param chunk entities per pipeline
+   * @return entities not saved (no id or unique value taken)
+   */
+  public List<Object> saveAll(Collection<?> entities, int chunk)
   {
+    if (chunk <= 0)
+    {
+      throw new IllegalArgumentException("chunk must be > 0");
+    }
+    List<Object> rejected = new ArrayList<>();
+    List<Object> list = new ArrayList<>(entities);
+    RedisFacade facade = store();
     try
     {
-      EntityRepresentation representation = EntityRepresentation.forClass(entity.getClass());
-      String id = representation.getId(entity);
+      if (facade.isPending())
+      {
+        facade.flush();
+      }
+      for (int from = 0; from < list.size(); from += chunk)
+      {
+        saveChunk(facade, list.subList(from, Math.min(from + chunk, list.size())), rejected);
+      }
+      return rejected;
+    } catch (Exception e)
+    {
+      facade.reset();
+      LOG.log(Level.SEVERE, "rojo error :{0}", stackTrace(e));
+      throw new RepositoryError(e);
+    } finally
+    {
+      release(facade);
+    }
+  }
+
+  /**
+   * save a chunk of entities
+   *
+   * @param facade
+   * @param entities
+   * @param rejected
+   * @throws Exception
+   */
+  private void saveChunk(RedisFacade facade, List<Object> entities, List<Object> rejected) throws Exception
+  {
+    Map<Class, List<Object>> groups = new LinkedHashMap<>();
+    for (Object entity : entities)
+    {
+      List<Object> group = groups.get(entity.getClass());
+      if (group == null)
+      {
+        group = new ArrayList<>();
+        groups.put(entity.getClass(), group);
+      }
+      group.add(entity);
+    }
+    List<Object> accepted = new ArrayList<>(entities.size());
+    List<String> ids = new ArrayList<>(entities.size());
+    for (Map.Entry<Class, List<Object>> en : groups.entrySet())
+    {
+      EntityRepresentation representation = EntityRepresentation.forClass(en.getKey());
       String table = representation.getTable();
-      boolean auto = representation.isAutoId();
-      boolean idCache = representation.isIdCache();
-      if (auto)
+      List<Object> group = en.getValue();
+      String[] gids = new String[group.size()];
+      int missing = 0;
+      for (int i = 0; i < gids.length; i++)
       {
-        if (isEmpty(id))
+        gids[i] = representation.getId(group.get(i));
+        if (isEmpty(gids[i]) && representation.isAutoId())
         {
-          id = representation.getIdGenerator().id(entity.getClass(), table, store.getJedis());
-          write++;
+          missing++;
         }
       }
-      if (isEmpty(id))//null id
+      if (missing > 0)//one block of ids
       {
-        return null;
+        String[] block = representation.getIdGenerator().ids(en.getKey(), table, facade.jedis(table + ":::id"), missing);
+        write++;
+        for (int i = 0, j = 0; i < gids.length; i++)
+        {
+          if (isEmpty(gids[i]))
+          {
+            gids[i] = block[j++];
+          }
+        }
       }
       Field unique = representation.getUnique();
-      if (unique != null)
+      List<Object> candidates = new ArrayList<>(group.size());
+      List<String> cids = new ArrayList<>(group.size());
+      List<Object> values = new ArrayList<>(group.size());
+      for (int i = 0; i < gids.length; i++)
       {
-        boolean result = store.writeUnique(entity, unique, table, representation.getColumn(unique.getName()), id);
-        if (!result)
+        Object v = unique == null ? null : unique.get(group.get(i));
+        if (isEmpty(gids[i]) || (unique != null && v == null))
         {
-          return null;
+          rejected.add(group.get(i));
+        } else
+        {
+          candidates.add(group.get(i));
+          cids.add(gids[i]);
+          values.add(v);
         }
       }
-      Field[] fs = representation.getFields();
-      for (int i = 0; i < fs.length; i++)
+      boolean[] reserved = null;
+      if (unique != null && !candidates.isEmpty())//one pipeline of SETNX
+      {
+        reserved = facade.writeUniques(table, representation.getColumn(unique.getName()), values, cids);
+        write++;
+      }
+      for (int i = 0; i < candidates.size(); i++)
       {
-        Field field = fs[i];
-        if (field.get(entity) != null)
+        if (reserved == null || reserved[i])
         {
-          if (Collection.class.isAssignableFrom(field.getType()))
-          {
-            Collection<? extends Object> collection = (Collection<? extends Object>) field.get(entity);
-            store.writeCollection(table, collection, id, representation.getColumns()[i]);
-          } else if (Map.class.isAssignableFrom(field.getType()))
-          {
-            Map map = (Map) field.get(entity);
-            store.writeMap(table, map, id, representation.getColumns()[i]);
-          } else
-          {
-            Object v = field.get(entity);
-            if (v instanceof byte[])//blob
-            {
-              store.writeBlob(table, id, representation.getColumns()[i], (byte[]) v, field);
-            } else
-            {
-              store.write(table, id, representation.getColumns()[i], v, field, true);
-            }
-          }
+          representation.setId(candidates.get(i), cids.get(i));
+          accepted.add(candidates.get(i));
+          ids.add(cids.get(i));
+        } else
+        {
+          rejected.add(candidates.get(i));
         }
       }
-      representation.setId(entity, id);
-      if (idCache)
+    }
+    for (int i = 0; i < accepted.size(); i++)
+    {
+      write(facade, accepted.get(i), ids.get(i));
+    }
+    facade.flush();
+    write++;
+    for (int i = 0; i < accepted.size(); i++)
+    {
+      Object entity = accepted.get(i);
+      forgetAbsent(entity.getClass(), ids.get(i));
+      if (Rojo.cacheable && EntityRepresentation.forClass(entity.getClass()).isCacheable())
+      {
+        cache(entity, ids.get(i));
+      }
+    }
+  }
+
+  /**
+   * write an entity
+   *
+   * @param entity
+   * @return
+   */
+  private String save(Object entity)
+  {
+    RedisFacade facade = store();
+    try
+    {
+      if (scriptSave && facade.isScriptAcrossKeys())
       {
-        store.addId(table, id);
+        return saveByScript(facade, entity);
+      }
+      String id = prepare(facade, entity, true);
+      if (id != null)
+      {
+        write(facade, entity, id);
       }
       return id;
     } catch (Exception e)
     {
-      store.reset();
+      facade.reset();
       LOG.log(Level.SEVERE, "rojo error :{0}", stackTrace(e));
       return null;
+    } finally
+    {
+      release(facade);
     }
   }
 
   /**
-   * write properties
+   * save with the save script (one atomic call,sent at once)
    *
+   * @param facade
    * @param entity
-   * @param ps
    * @return
+   * @throws Exception
    */
-  public boolean update(Object entity, String... ps)
+  private String saveByScript(RedisFacade facade, Object entity) throws Exception
   {
+    String id = prepare(facade, entity, false);
+    if (id == null)
+    {
+      return null;
+    }
+    EntityRepresentation representation = EntityRepresentation.forClass(entity.getClass());
+    Field unique = representation.getUnique();
+    if (unique != null && unique.get(entity) == null)
+    {
+      return null;
+    }
+    if (!facade.saveByScript(entity, representation, id))
+    {
+      return null;
+    }
+    representation.setId(entity, id);
+    BloomFilter bf = blooms.get(representation.getTable());
+    if (bf != null)
+    {
+      bf.put(id);
+    }
+    forgetAbsent(entity.getClass(), id);
+    snapshot(entity, representation, id);
+    return id;
+  }
+
+  /**
+   * the id of an entity to save,an auto id is generated and the unique value
+   * is reserved (blocking calls,done before any write is pipelined)
+   *
+   * @param facade
+   * @param entity
+   * @param reserve reserve the unique value
+   * @return null if there is no id or the unique value is taken
+   */
+  private String prepare(RedisFacade facade, Object entity, boolean reserve)
+  {
+    EntityRepresentation representation = EntityRepresentation.forClass(entity.getClass());
+    String id = representation.getId(entity);
+    String table = representation.getTable();
+    if (representation.isAutoId())
+    {
+      if (isEmpty(id))
+      {
+        id = representation.getIdGenerator().id(entity.getClass(), table, facade.jedis(table + ":::id"));
+        write++;
+      }
+    }
+    if (isEmpty(id))//null id
+    {
+      return null;
+    }
+    Field unique = representation.getUnique();
+    if (unique != null && reserve)
+    {
+      boolean result = facade.writeUnique(entity, unique, table, representation.getColumn(unique.getName()), id);
+      if (!result)
+      {
+        return null;
+      }
+    }
+    if (reserve)
+    {
+      representation.setId(entity, id);
+    }
+    return id;
+  }
+
+  /**
+   * pipeline the writes of a prepared entity
+   *
+   * @param facade
+   * @param entity
+   * @param id
+   * @throws Exception
+   */
+  private void write(RedisFacade facade, Object entity, String id) throws Exception
+  {
+    EntityRepresentation representation = EntityRepresentation.forClass(entity.getClass());
+    String table = representation.getTable();
+    Field[] fs = representation.getFields();
+    for (int i = 0; i < fs.length; i++)
+    {
+      Field field = fs[i];
+      if (field.get(entity) != null)
+      {
+        if (Collection.class.isAssignableFrom(field.getType()))
+        {
+          Collection<? extends Object> collection = (Collection<? extends Object>) field.get(entity);
+          facade.writeCollection(table, collection, id, representation.getColumns()[i], field);
+        } else if (Map.class.isAssignableFrom(field.getType()))
+        {
+          Map map = (Map) field.get(entity);
+          facade.writeMap(table, map, id, representation.getColumns()[i]);
+        } else
+        {
+          Object v = field.get(entity);
+          if (v instanceof byte[])//blob
+          {
+            facade.writeBlob(table, id, representation.getColumns()[i], (byte[]) v, field);
+          } else
+          {
+            facade.write(table, id, representation.getColumns()[i], v, field, true);
+          }
+        }
+      }
+    }
+    if (representation.isIdCache())
+    {
+      facade.addId(table, id);
+    }
+    BloomFilter bf = blooms.get(representation.getTable());
+    if (bf != null)
+    {
+      bf.put(id);
+    }
+    forgetAbsent(entity.getClass(), id);
+    snapshot(entity, representation, id);
+  }
+
+  /**
+   * a unit of work,its saves,updates and deletes are sent with one pipeline
+   * on commit
+   *
+   * @return
+   */
+  public RojoSession batch()
+  {
+    return new RojoSession(this);
+  }
+
+  /**
+   * commit a session
+   *
+   * @param session
+   * @param transactional wrap the writes with MULTI/EXEC
+   * @return entities not saved (no id or unique value taken)
+   */
+  List<Object> commit(RojoSession session, boolean transactional)
+  {
+    List<Object> rejected = new ArrayList<>();
+    List<RojoSession.Op> ops = session.ops();
+    for (RojoSession.Op op : ops)//refused before anything is reserved
+    {
+      if (op.type == RojoSession.UPDATE)
+      {
+        EntityRepresentation representation = EntityRepresentation.forClass(op.entity.getClass());
+        if (isEmpty(representation.getId(op.entity)))
+        {
+          throw new RepositoryError("update failed,no id:" + op.entity);
+        }
+        for (String p : op.ps == null ? new String[0] : op.ps)
+        {
+          if (representation.getField(p) == null)
+          {
+            throw new RepositoryError("update failed,no property " + p + ":" + op.entity);
+          }
+        }
+      }
+    }
+    String[] ids = new String[ops.size()];
+    String[] before = new String[ops.size()];//ids of the saved entities before the commit
+    int at = -1;//the op being queued
+    boolean sent = false;
+    RedisFacade facade = store();
+    try
+    {
+      if (facade.isPending())
+      {
+        facade.flush();
+      }
+      for (int i = 0; i < ids.length; i++)//blocking calls first
+      {
+        RojoSession.Op op = ops.get(i);
+        if (op.type == RojoSession.SAVE)
+        {
+          before[i] = EntityRepresentation.forClass(op.entity.getClass()).getId(op.entity);
+          ids[i] = prepare(facade, op.entity, true);
+          if (ids[i] == null)
+          {
+            rejected.add(op.entity);
+          }
+        }
+      }
+      if (transactional)
+      {
+        facade.multi();
+      }
+      String[] deleted = new String[ops.size()];
+      for (at = 0; at < ids.length; at++)
+      {
+        RojoSession.Op op = ops.get(at);
+        switch (op.type)
+        {
+          case RojoSession.SAVE:
+            if (ids[at] != null)
+            {
+              write(facade, op.entity, ids[at]);
+            }
+            break;
+          case RojoSession.UPDATE:
+            updateProperties(facade, op.entity, op.ps);
+            break;
+          default:
+            deleted[at] = remove(facade, op.entity);
+        }
+      }
+      sent = true;
+      if (transactional)
+      {
+        facade.exec();
+      }
+      facade.flush();
+      write++;
+      for (int i = 0; i < ids.length; i++)
+      {
+        RojoSession.Op op = ops.get(i);
+        if (ids[i] != null)
+        {
+          forgetAbsent(op.entity.getClass(), ids[i]);
+          if (Rojo.cacheable && EntityRepresentation.forClass(op.entity.getClass()).isCacheable())
+          {
+            cache(op.entity, ids[i]);
+          }
+        } else if (op.type == RojoSession.UPDATE)
+        {
+          updated(op.entity, op.ps);
+        } else if (deleted[i] != null)
+        {
+          removed(op.entity.getClass(), deleted[i]);
+        }
+      }
+      return rejected;
+    } catch (Exception e)
+    {
+      facade.reset();//DISCARD in a transaction,else the ops queued are sent
+      LOG.log(Level.SEVERE, "rojo error :{0}", stackTrace(e));
+      if (!sent)
+      {
+        unreserve(facade, ops, ids, before, transactional ? 0 : at + 1);
+      }
+      throw e instanceof RepositoryError ? (RepositoryError) e : new RepositoryError(e);
+    } finally
+    {
+      release(facade);
+    }
+  }
+
+  /**
+   * give back the unique values reserved by a failed commit for the saves
+   * not written,those entities get their ids back
+   *
+   * @param facade
+   * @param ops
+   * @param ids
+   * @param before
+   * @param from the first op not written
+   */
+  private void unreserve(RedisFacade facade, List<RojoSession.Op> ops, String[] ids, String[] before, int from)
+  {
+    for (int i = Math.max(from, 0); i < ids.length; i++)
+    {
+      if (ids[i] == null)
+      {
+        continue;
+      }
+      Object entity = ops.get(i).entity;
+      EntityRepresentation representation = EntityRepresentation.forClass(entity.getClass());
+      try
+      {
+        Field unique = representation.getUnique();
+        if (unique != null)
+        {
+          facade.releaseUnique(entity, unique, representation.getTable(), representation.getColumn(unique.getName()), ids[i]);
+        }
+        representation.setId(entity, before[i]);
+      } catch (Exception e)
+      {
+        LOG.log(Level.WARNING, "unique of {0} not released :{1}", new Object[]
+        {
+          entity, e.getMessage()
+        });
+      }
+    }
+  }
+
+  /**
+   * write properties
+   *
+   * @param entity
+   * @param ps
+   * @return
+   */
+  public boolean update(Object entity, String... ps)
+  {
+    RedisFacade facade = store();
+    try
+    {
+      if (updateProperties(facade, entity, ps))
+      {
+        updated(entity, ps);
+        return true;
+      }
+    } catch (Exception e)
+    {
+      facade.reset();
+      LOG.log(Level.SEVERE, "rojo error :{0}", stackTrace(e));
+    } finally
+    {
+      release(facade);
+    }
+    return false;
+  }
+
+  /**
+   * pipeline the writes of properties
+   *
+   * @param facade
+   * @param entity
+   * @param ps null for all properties exclude unique (with dirty tracking only
+   * the properties changed)
+   * @return false if the entity has no id
+   * @throws Exception
+   */
+  private boolean updateProperties(RedisFacade facade, Object entity, String[] ps) throws Exception
+  {
+    EntityRepresentation representation = EntityRepresentation.forClass(entity.getClass());
+    String table = representation.getTable();
+    String id = representation.getId(entity);
+    if (id == null)
+    {
+      return false;
+    }
+    Field[] fs;
+    String[] columns;
+    boolean[] changed = null;
+    if (ps == null)
+    {
+      fs = representation.getFields();
+      columns = representation.getColumns();
+      Snapshots ss = snapshots;
+      changed = ss == null ? null : ss.changed(entity, representation, id);
+    } else
+    {
+      fs = new Field[ps.length];
+      columns = new String[ps.length];
+      for (int i = 0; i < ps.length; i++)
+      {
+        fs[i] = representation.getField(ps[i]);
+        columns[i] = representation.getColumn(ps[i]);
+      }
+    }
+    for (int i = 0; i < fs.length; i++)
+    {
+      if (changed != null && !changed[i])
+      {
+        continue;
+      }
+      Field f = fs[i];
+      String column = columns[i];
+      Object v = representation.readProperty(entity, f);
+      if (Collection.class.isAssignableFrom(f.getType()))
+      {
+        facade.writeCollection(table, (Collection) v, id, column, f);
+      } else if (Map.class.isAssignableFrom(f.getType()))
+      {
+        facade.writeMap(table, (Map) v, id, column);
+      } else if (f.getType() == byte[].class)//blob
+      {
+        facade.writeBlob(table, id, column, (byte[]) v, f);
+      } else
+      {
+        facade.update(table, id, column, v, f);
+      }
+    }
+    return true;
+  }
+
+  /**
+   * the snapshot of an entity follows its update
+   *
+   * @param entity
+   * @param ps null for all properties
+   * @throws IllegalAccessException
+   */
+  private void updated(Object entity, String[] ps) throws IllegalAccessException
+  {
+    Snapshots ss = snapshots;
+    if (ss == null)
+    {
+      return;
+    }
+    EntityRepresentation representation = EntityRepresentation.forClass(entity.getClass());
+    String id = representation.getId(entity);
+    if (ps == null)
+    {
+      ss.take(entity, representation, id);
+    } else
+    {
+      List<Field> written = new ArrayList<>(ps.length);
+      for (String p : ps)
+      {
+        written.add(representation.getField(p));
+      }
+      ss.refresh(entity, representation, id, written);
+    }
+  }
+
+  /**
+   * append values to a collection property (RPUSH,values already in a set are
+   * skipped). The entity and its cached copy are changed too.
+   *
+   * @param entity
+   * @param p
+   * @param values
+   * @return
+   */
+  public boolean append(Object entity, String p, Object... values)
+  {
+    return mutate(entity, p, Collection.class, 'a', values);
+  }
+
+  /**
+   * remove every occurrence of a value from a collection property (LREM)
+   *
+   * @param entity
+   * @param p
+   * @param value
+   * @return
+   */
+  public boolean removeElement(Object entity, String p, Object value)
+  {
+    return mutate(entity, p, Collection.class, 'r', value);
+  }
+
+  /**
+   * is a value in a collection property,answered by SISMEMBER for a set
+   * property without loading the entity (a cached copy is used if any)
+   *
+   * @param claz
+   * @param id
+   * @param p
+   * @param value
+   * @return
+   */
+  public boolean contains(Class claz, String id, String p, Object value)
+  {
+    EntityRepresentation representation = EntityRepresentation.forClass(claz);
+    Field f = representation.getField(p);
+    if (f == null || !Collection.class.isAssignableFrom(f.getType()))
+    {
+      throw new InvalidTypeException(claz.getName() + " has no Collection property " + p);
+    }
+    if (Rojo.cacheable && representation.isCacheable())
+    {
+      Object entity = getFromCache(claz, id);
+      if (entity != null)
+      {
+        try
+        {
+          Collection c = (Collection) f.get(entity);
+          return c != null && c.contains(value);
+        } catch (IllegalAccessException e)
+        {
+          throw new RepositoryError(e);
+        }
+      }
+    }
+    RedisFacade facade = store();
+    try
+    {
+      read++;
+      return facade.contains(representation.getTable(), id, representation.getColumn(p), f, value);
+    } catch (Exception e)
+    {
+      facade.reset();
+      LOG.log(Level.SEVERE, "rojo error :{0}", stackTrace(e));
+      throw new RepositoryError(e);
+    } finally
+    {
+      release(facade);
+    }
+  }
+
+  /**
+   * add delta to an integer property atomically (HINCRBY,a sorted property
+   * has its sorted key updated and trimmed in the same script)
+   *
+   * @param claz
+   * @param id
+   * @param p
+   * @param delta
+   * @return the new value,null if the entity does not exist
+   */
+  public Long incr(Class claz, String id, String p, long delta)
+  {
+    String v = incr(claz, id, p, delta, false);
+    return v == null ? null : Long.valueOf(v);
+  }
+
+  /**
+   * add delta to a float property atomically (HINCRBYFLOAT)
+   *
+   * @param claz
+   * @param id
+   * @param p
+   * @param delta
+   * @return the new value,null if the entity does not exist
+   */
+  public Double incr(Class claz, String id, String p, double delta)
+  {
+    String v = incr(claz, id, p, delta, true);
+    return v == null ? null : Double.valueOf(v);
+  }
+
+  /**
+   * incr and write the new value through to the cached copy
+   *
+   * @param claz
+   * @param id
+   * @param p
+   * @param delta
+   * @param floating
+   * @return
+   */
+  private String incr(Class claz, String id, String p, Number delta, boolean floating)
+  {
+    EntityRepresentation representation = EntityRepresentation.forClass(claz);
+    Field f = representation.getField(p);
+    Class t = f == null ? null : f.getType();
+    boolean integer = t == int.class || t == Integer.class || t == long.class || t == Long.class || t == short.class || t == Short.class;
+    boolean decimal = t == float.class || t == Float.class || t == double.class || t == Double.class;
+    if (!(floating ? decimal : integer))
+    {
+      throw new InvalidTypeException(claz.getName() + " has no " + (floating ? "float" : "integer") + " property " + p);
+    }
+    Value annotation = f.getAnnotation(Value.class);
+    if ((annotation != null && annotation.unique()) || f.isAnnotationPresent(Index.class))
+    {
+      throw new InvalidTypeException("can not incr unique or indexed property " + p);
+    }
+    RedisFacade facade = store();
+    try
+    {
+      String v = facade.incr(representation.getTable(), id, representation.getColumn(p), f, delta, floating);
+      write++;
+      if (v == null)
+      {
+        return null;
+      }
+      if (Rojo.cacheable && representation.isCacheable())
+      {
+        Object entity = getFromCache(claz, id);
+        if (entity != null)
+        {
+          f.set(entity, RedisFacade.decode(t, v));
+          Snapshots ss = snapshots;
+          if (ss != null)
+          {
+            ss.refresh(entity, representation, id, Collections.singleton(f));
+          }
+        }
+      }
+      return v;
+    } catch (Exception e)
+    {
+      facade.reset();
+      LOG.log(Level.SEVERE, "rojo error :{0}", stackTrace(e));
+      throw new RepositoryError(e);
+    } finally
+    {
+      release(facade);
+    }
+  }
+
+  /**
+   * put an entry of a map property (HSET)
+   *
+   * @param entity
+   * @param p
+   * @param k
+   * @param v
+   * @return
+   */
+  public boolean putEntry(Object entity, String p, Object k, Object v)
+  {
+    return mutate(entity, p, Map.class, 'p', k, v);
+  }
+
+  /**
+   * remove entries of a map property (HDEL)
+   *
+   * @param entity
+   * @param p
+   * @param ks
+   * @return
+   */
+  public boolean removeEntry(Object entity, String p, Object... ks)
+  {
+    return mutate(entity, p, Map.class, 'd', ks);
+  }
+
+  /**
+   * change one collection or map property in place,only the elements given
+   * are sent (pipelined like update)
+   *
+   * @param entity
+   * @param p
+   * @param type Collection or Map
+   * @param op 'a' append,'r' remove element,'p' put entry,'d' remove entries
+   * @param args
+   * @return
+   */
+  private boolean mutate(Object entity, String p, Class type, char op, Object... args)
+  {
+    Class claz = entity.getClass();
+    EntityRepresentation representation = EntityRepresentation.forClass(claz);
+    Field f = representation.getField(p);
+    if (f == null || !type.isAssignableFrom(f.getType()))
+    {
+      throw new InvalidTypeException(claz.getName() + " has no " + type.getSimpleName() + " property " + p);
+    }
+    String id = representation.getId(entity);
+    if (id == null)
+    {
+      return false;
+    }
+    RedisFacade facade = store();
+    try
+    {
+      String table = representation.getTable();
+      String column = representation.getColumn(p);
+      Object v = f.get(entity);
+      if (v == null)
+      {
+        v = type == Map.class ? new HashMap() : RedisFacade.initCollectionHolder(f);
+        f.set(entity, v);
+      }
+      switch (op)
+      {
+        case 'a'://the entity changes once redis took the write
+          List<Object> added = new ArrayList<>(args.length);
+          for (Object o : args)
+          {
+            if (!(v instanceof Set) || (!((Set) v).contains(o) && !added.contains(o)))
+            {
+              added.add(o);
+            }
+          }
+          if (added.isEmpty())
+          {
+            return true;
+          }
+          facade.pushElements(table, id, column, f, added.toArray());
+          ((Collection) v).addAll(added);
+          break;
+        case 'r':
+          facade.removeElement(table, id, column, f, args[0]);
+          ((Collection) v).removeAll(Collections.singleton(args[0]));
+          break;
+        case 'p':
+          if (args[0] == null)
+          {
+            return false;
+          }
+          facade.putEntry(table, id, column, args[0], args[1]);
+          ((Map) v).put(args[0], args[1]);
+          break;
+        default:
+          if (args.length == 0)
+          {
+            return true;
+          }
+          facade.removeEntries(table, id, column, args);
+          for (Object k : args)
+          {
+            ((Map) v).remove(k);
+          }
+      }
+      write++;
+      Snapshots ss = snapshots;
+      if (ss != null)
+      {
+        ss.refresh(entity, representation, id, Collections.singleton(f));
+      }
+      if (Rojo.cacheable && representation.isCacheable() && getFromCache(claz, id) != entity)
+      {
+        evict(claz, id);//a stale copy
+      }
+      return true;
+    } catch (Exception e)
+    {
+      facade.reset();
+      LOG.log(Level.SEVERE, "rojo error :{0}", stackTrace(e));
+    } finally
+    {
+      release(facade);
+    }
+    return false;
+  }
+
+  /**
+   * update all properties exclude unique (with dirty tracking only the
+   * properties changed since the entity was read or written)
+   *
+   * @param entity
+   * @return
+   */
+  public boolean update(Object entity)
+  {
+    return update(entity, (String[]) null);
+  }
+
+  /**
+   * write and flush
+   *
+   * @param entity
+   * @param ps
+   * @return
+   */
+  public boolean updateAndFlush(Object entity, String... ps)
+  {
+    if (this.update(entity, ps))
+    {
+      flush();
+      write++;
+      return true;
+    }
+    return false;
+  }
+
+  /**
+   * update all properties of entity
+   *
+   * @param entity
+   * @return
+   */
+  public boolean updateAndFlush(Object entity)
+  {
+    if (this.update(entity))
+    {
+      flush();
+      write++;
+      return true;
+    }
+    return false;
+  }
+
+  /**
+   * read an entity,concurrent misses of a cacheable entity share one load
+   *
+   * @param <T>
+   * @param claz
+   * @param id
+   * @return
+   */
+  public <T> T get(final Class<T> claz, final String id)
+  {
+    T entity = getFromCache(claz, id);
+    if (entity != null)
+    {
+      return entity;
+    }
+    if (isAbsent(claz, id))
+    {
+      return null;
+    }
+    EntityRepresentation representation = EntityRepresentation.forClass(claz);
+    if (Rojo.cacheable && representation.isCacheable())
+    {
+      return (T) FLIGHTS.run(claz.getName() + ":" + id, new Callable<Object>()
+      {
+        @Override
+        public Object call() throws Exception
+        {
+          return load(claz, id);
+        }
+      });
+    }
+    return load(claz, id);
+  }
+
+  /**
+   * load an entity from redis
+   *
+   * @param <T>
+   * @param claz
+   * @param id
+   * @return
+   */
+  private <T> T load(Class<T> claz, String id)
+  {
+    RedisFacade facade = store();
+    try
+    {
+      EntityRepresentation representation = EntityRepresentation.forClass(claz);
+      T entity = claz.newInstance();
+      representation.setId(entity, id);
+      read++;
+      if (!(scriptRead ? facade.processScript(entity, representation, id) : facade.processFields(entity, representation, id)))
+      {
+        rememberAbsent(claz, id);
+        return null;
+      }
+      snapshot(entity, representation, id);
+      if (Rojo.cacheable && representation.isCacheable())
+      {
+        cache(entity, id);
+      }
+      return entity;
+    } catch (Exception e)
+    {
+      facade.reset();
+      LOG.log(Level.SEVERE, "rojo error :{0}", stackTrace(e));
+      throw new RepositoryError(e);
+    } finally
+    {
+      release(facade);
+    }
+  }
+
+  /**
+   * read an entity with the given properties only (the others keep their
+   * default values),partial entities are not cached
+   *
+   * @param <T>
+   * @param claz
+   * @param id
+   * @param ps properties
+   * @return
+   */
+  public <T> T getPartial(Class<T> claz, String id, String... ps)
+  {
+    T entity = getFromCache(claz, id);
+    if (entity != null)
+    {
+      return entity;
+    }
+    if (isAbsent(claz, id))
+    {
+      return null;
+    }
+    RedisFacade facade = store();
     try
     {
-      Class claz = entity.getClass();
       EntityRepresentation representation = EntityRepresentation.forClass(claz);
-      String table = representation.getTable();
-      String id = representation.getId(entity);
-      if (id != null)
+      Field[] fs = new Field[ps.length];
+      String[] columns = new String[ps.length];
+      for (int i = 0; i < ps.length; i++)
       {
-        for (String p : ps)
+        fs[i] = representation.getField(ps[i]);
+        if (fs[i] == null)
         {
-          Field f = representation.getField(p);
-          String column = representation.getColumn(p);
-          Object v = representation.readProperty(entity, f);
-          if (Collection.class.isAssignableFrom(f.getType()))
-          {
-            store.writeCollection(table, (Collection) v, id, column);
-          } else if (Map.class.isAssignableFrom(f.getType()))
+          throw new InvalidTypeException(claz.getName() + " has no property " + ps[i]);
+        }
+        columns[i] = representation.getColumn(ps[i]);
+      }
+      entity = claz.newInstance();
+      representation.setId(entity, id);
+      read++;
+      if (!facade.processFields(entity, representation, id, fs, columns))
+      {
+        rememberAbsent(claz, id);
+        return null;
+      }
+      return entity;
+    } catch (Exception e)
+    {
+      facade.reset();
+      LOG.log(Level.SEVERE, "rojo error :{0}", stackTrace(e));
+      throw new RepositoryError(e);
+    } finally
+    {
+      release(facade);
+    }
+  }
+
+  /**
+   * read entities in bulk,the cache is resolved in one pass and the misses are
+   * loaded with one pipeline per BATCH_SIZE ids
+   *
+   * @param <T>
+   * @param claz
+   * @param ids
+   * @return entities in the order of ids (null if not exist)
+   */
+  public <T> List<T> getAll(Class<T> claz, Collection<String> ids)
+  {
+    RedisFacade facade = store();
+    try
+    {
+      EntityRepresentation representation = EntityRepresentation.forClass(claz);
+      boolean cacheable = Rojo.cacheable && representation.isCacheable() && cache != null;
+      List<String> idList = new ArrayList<>(ids);
+      List<T> r = cacheable ? fromCache(claz, idList) : new ArrayList<>(Collections.<T>nCopies(idList.size(), null));
+      Map<String, List<Integer>> misses = new LinkedHashMap<>();
+      for (int i = 0; i < idList.size(); i++)
+      {
+        if (r.get(i) == null && !isAbsent(claz, idList.get(i)))
+        {
+          List<Integer> positions = misses.get(idList.get(i));
+          if (positions == null)
           {
-            store.writeMap(table, (Map) v, id, column);
-          } else if (f.getType() == byte[].class)//blob
+            positions = new ArrayList<>(1);
+            misses.put(idList.get(i), positions);
+          }
+          positions.add(i);
+        }
+      }
+      String[] missIds = misses.keySet().toArray(new String[misses.size()]);
+      for (int from = 0; from < missIds.length; from += BATCH_SIZE)
+      {
+        int to = Math.min(from + BATCH_SIZE, missIds.length);
+        boolean script = scriptRead;
+        Object[] rs = new Object[to - from];
+        for (int i = from; i < to; i++)
+        {
+          rs[i - from] = script ? facade.readScriptFuture(representation, missIds[i]) : facade.readFutures(representation, missIds[i]);
+        }
+        facade.sync();
+        if (script)
+        {
+          facade.retryReadScripts(representation, missIds, from, rs);
+        }
+        read++;
+        for (int i = from; i < to; i++)
+        {
+          String id = missIds[i];
+          T entity = claz.newInstance();
+          representation.setId(entity, id);
+          boolean exists = script
+                  ? facade.processScript(entity, representation, id, (Response<Object>) rs[i - from])
+                  : facade.processFields(entity, representation, (Response[]) rs[i - from]);
+          if (exists)
           {
-            store.writeBlob(table, id, column, (byte[]) v, f);
+            for (int pos : misses.get(id))
+            {
+              r.set(pos, entity);
+            }
+            snapshot(entity, representation, id);
+            if (cacheable)
+            {
+              cache(entity, id);
+            }
           } else
           {
-            store.update(table, id, column, v, f);
+            rememberAbsent(claz, id);
           }
         }
-        return true;
       }
+      return r;
     } catch (Exception e)
     {
-      store.reset();
+      facade.reset();
+      LOG.log(Level.SEVERE, "rojo error :{0}", stackTrace(e));
+      throw new RepositoryError(e);
+    } finally
+    {
+      release(facade);
+    }
+  }
+
+  /**
+   * exist
+   *
+   * @param claz
+   * @param id
+   * @return
+   */
+  public boolean exist(Class claz, String id)
+  {
+    RedisFacade facade = store();
+    try
+    {
+      if (isAbsent(claz, id))
+      {
+        return false;
+      }
+      EntityRepresentation representation = EntityRepresentation.forClass(claz);
+      String table = representation.getTable();
+      read++;
+      boolean r = facade.exists(table, id);
+      if (!r)
+      {
+        rememberAbsent(claz, id);
+      }
+      return r;
+    } catch (Exception e)
+    {
+      facade.reset();
       LOG.log(Level.SEVERE, "rojo error :{0}", stackTrace(e));
+    } finally
+    {
+      release(facade);
     }
     return false;
   }
 
   /**
-   * update all properties exclude unique
+   * get a property
    *
-   * @param entity
+   * @param <T>
+   * @param claz
+   * @param id
+   * @param p
    * @return
    */
-  public boolean update(Object entity)
+  public <T> T get(Class<T> claz, String id, String p)
+  {
+    RedisFacade facade = store();
+    try
+    {
+      EntityRepresentation representation = EntityRepresentation.forClass(claz);
+      Field f = representation.getField(p);
+      String table = representation.getTable();
+      String column = representation.getColumn(p);
+      if (Rojo.cacheable && representation.isCacheable())
+      {
+        Object entity = getFromCache(claz, id);
+        if (entity != null)
+        {
+          return (T) f.get(entity);
+        }
+      }
+      read++;
+      if (Collection.class.isAssignableFrom(f.getType()))
+      {
+        Collection holder = RedisFacade.initCollectionHolder(f);
+        facade.readValues(table, id, column, f, holder);
+        return (T) holder;
+      } else if (Map.class.isAssignableFrom(f.getType()))
+      {
+        Map map = RedisFacade.initMapHolder(f);
+        facade.readValues(table, id, column, f, map);
+        return (T) map;
+      } else
+      {
+        return facade.readValue(table, id, column, f);
+      }
+    } catch (Exception e)
+    {
+      facade.reset();
+      LOG.log(Level.SEVERE, "rojo error :{0}", stackTrace(e));
+    } finally
+    {
+      release(facade);
+    }
+    return null;
+  }
+
+  /**
+   * delete and flush
+   *
+   * @param entity
+   */
+  public void deleteAndFlush(Object entity)
+  {
+    this.delete(entity);
+    write++;
+    flush();
+  }
+
+  /**
+   * delete by id
+   *
+   * @param claz
+   * @param id
+   */
+  public void deleteAndFlush(Class claz, String id)
+  {
+    Object temp = this.get(claz, id);
+    if (temp != null)
+    {
+      this.deleteAndFlush(temp);
+    }
+  }
+
+  /**
+   * delete by class
+   *
+   * @param claz
+   */
+  public void deleteAndFlush(Class claz)
   {
+    RedisFacade facade = store();
     try
     {
-      Class claz = entity.getClass();
       EntityRepresentation representation = EntityRepresentation.forClass(claz);
       String table = representation.getTable();
-      String id = representation.getId(entity);
+      facade.delKeys(table);
+      read++;
+      write++;
+      if (Rojo.cacheable && representation.isCacheable())
+      {
+        cache.evict(claz);
+      }
+    } catch (Exception e)
+    {
+      facade.reset();
+      LOG.log(Level.SEVERE, "rojo error :{0}", stackTrace(e));
+    } finally
+    {
+      release(facade);
+    }
+  }
+
+  /**
+   * delete entity
+   *
+   * @param entity
+   */
+  public void delete(Object entity)
+  {
+    if (entity == null)
+    {
+      return;
+    }
+    RedisFacade facade = store();
+    try
+    {
+      String id = remove(facade, entity);
       if (id != null)
       {
-        for (String p : representation.getColumns())
+        removed(entity.getClass(), id);
+      }
+    } catch (Exception e)
+    {
+      facade.reset();
+      LOG.log(Level.SEVERE, "rojo error :{0}", stackTrace(e));
+    } finally
+    {
+      release(facade);
+    }
+  }
+
+  /**
+   * pipeline the deletes of an entity
+   *
+   * @param facade
+   * @param entity
+   * @return the id,null if none
+   * @throws Exception
+   */
+  private String remove(RedisFacade facade, Object entity) throws Exception
+  {
+    EntityRepresentation representation = EntityRepresentation.forClass(entity.getClass());
+    String table = representation.getTable();
+    String id = representation.getId(entity);
+    if (id == null)
+    {
+      return null;
+    }
+    Field unique = representation.getUnique();
+    if (unique != null)
+    {
+      facade.removeUnique(entity, unique, table, representation.getColumn(unique.getName()));
+    }
+    Field[] fs = representation.getFields();
+    String[] columns = representation.getColumns();
+    for (int i = 0; i < fs.length; i++)
+    {
+      Field field = fs[i];
+      facade.delete(table, id, columns[i], field);//collection or map
+      Index index = field.getAnnotation(Index.class);
+      if (index != null)
+      {
+        try
         {
-          Field f = representation.getField(p);
-          String column = representation.getColumn(p);
-          Object v = representation.readProperty(entity, f);
-          if (Collection.class.isAssignableFrom(f.getType()))
-          {
-            store.writeCollection(table, (Collection) v, id, column);
-          } else if (Map.class.isAssignableFrom(f.getType()))
+          Object v = field.get(entity);
+          if (v != null)
           {
-            store.writeMap(table, (Map) v, id, column);
-          } else if (f.getType() == byte[].class)//blob
-          {
-            store.writeBlob(table, id, column, (byte[]) v, f);
-          } else
-          {
-            store.update(table, id, column, v, f);
+            facade.deleteIndex(table, columns[i], v.toString(), id);
           }
+        } catch (Exception e)
+        {
+          LOG.log(Level.WARNING, "rojo error :{0}", e.getMessage());
         }
-        return true;
       }
+    }
+    facade.delete(table, id);//all simple properties
+    facade.deleteId(table, id);//id
+    return id;
+  }
+
+  /**
+   * forget the snapshot and the cached copy of a deleted entity
+   *
+   * @param claz
+   * @param id
+   */
+  private void removed(Class claz, String id)
+  {
+    Snapshots ss = snapshots;
+    if (ss != null)
+    {
+      ss.forget(claz, id);
+    }
+    if (Rojo.cacheable && EntityRepresentation.forClass(claz).isCacheable())
+    {
+      evict(claz, id);
+    }
+  }
+
+  /**
+   * the range
+   *
+   * @param <T>
+   * @param claz
+   * @param p
+   * @param start
+   * @param end
+   * @return
+   */
+  public <T> Set<T> range(Class<T> claz, String p, long start, long end)
+  {
+    RedisFacade facade = store();
+    try
+    {
+      EntityRepresentation representation = EntityRepresentation.forClass(claz);
+      Field f = representation.getField(p);
+      String table = representation.getTable();
+      String column = representation.getColumn(f.getName());
+      Set<String> s = facade.range(table, column, f, start, end);
+      read++;
+      return new LinkedHashSet<>(this.getAll(claz, s));
     } catch (Exception e)
     {
-      store.reset();
-      LOG.log(Level.SEVERE, "rojo error :{0}", stackTrace(e));
+      facade.reset();
+      LOG.log(Level.SEVERE, "rojo error :{0}", e.getMessage());
+    } finally
+    {
+      release(facade);
     }
-    return false;
+    return null;
   }
 
   /**
-   * write and flush
+   * iterate the range lazily
    *
-   * @param entity
-   * @param ps
+   * @param <T>
+   * @param claz
+   * @param p
+   * @param start
+   * @param end
+   * @param chunk ids loaded per batch
    * @return
    */
-  public boolean updateAndFlush(Object entity, String... ps)
+  public <T> Iterator<T> iterateRange(Class<T> claz, String p, long start, long end, int chunk)
   {
-    if (this.update(entity, ps))
+    EntityRepresentation representation = EntityRepresentation.forClass(claz);
+    final Field f = representation.getField(p);
+    final String table = representation.getTable();
+    final String column = representation.getColumn(f.getName());
+    long size = 0;
+    if (start < 0 || end < -1)
     {
-      flush();
-      write++;
-      return true;
+      RedisFacade facade = store();
+      try
+      {
+        size = facade.rangeSize(table, column, f);
+        read++;
+      } catch (Exception e)
+      {
+        facade.reset();
+        LOG.log(Level.SEVERE, "rojo error :{0}", stackTrace(e));
+        throw new RepositoryError(e);
+      } finally
+      {
+        release(facade);
+      }
     }
-    return false;
+    final long[] ranks = ranks(start, end, size);
+    if (ranks == null)
+    {
+      return Collections.emptyIterator();
+    }
+    return new EntityIterator<T>(this, claz, chunk)
+    {
+      @Override
+      Collection<String> page(long offset, int count)
+      {
+        long[] page = EntityIterator.rankPage(ranks[0], ranks[1], offset, count);
+        if (page == null)
+        {
+          return Collections.emptySet();
+        }
+        RedisFacade facade = store();
+        try
+        {
+          read++;
+          Set<String> s = facade.range(table, column, f, page[0], page[1]);
+          return s == null ? Collections.<String>emptySet() : s;
+        } catch (Exception e)
+        {
+          facade.reset();
+          LOG.log(Level.SEVERE, "rojo error :{0}", stackTrace(e));
+          throw new RepositoryError(e);
+        } finally
+        {
+          release(facade);
+        }
+      }
+    };
   }
 
   /**
-   * update all properties of entity
+   * range by score
    *
-   * @param entity
+   * @param <T>
+   * @param claz
+   * @param p
+   * @param start
+   * @param end
    * @return
    */
-  public boolean updateAndFlush(Object entity)
+  public <T> Set<T> scoreRange(Class<T> claz, String p, double start, double end)
   {
-    if (this.update(entity))
+    RedisFacade facade = store();
+    try
     {
-      flush();
-      write++;
-      return true;
+      EntityRepresentation representation = EntityRepresentation.forClass(claz);
+      Field f = representation.getField(p);
+      String table = representation.getTable();
+      String column = representation.getColumn(f.getName());
+      Set<String> s = facade.scoreRange(table, column, f, start, end);
+      read++;
+      return new LinkedHashSet<>(this.getAll(claz, s));
+    } catch (Exception e)
+    {
+      facade.reset();
+      LOG.log(Level.SEVERE, "rojo error :{0}", e.getMessage());
+    } finally
+    {
+      release(facade);
     }
-    return false;
+    return null;
   }
 
   /**
-   * read an entity
+   * index of rank
    *
-   * @param <T>
    * @param claz
    * @param id
+   * @param p
    * @return
    */
-  public <T> T get(Class<T> claz, String id)
+  public long rank(Class claz, String id, String p)
   {
-    T entity = getFromCache(claz, id);
-    if (entity != null)
-    {
-      return entity;
-    }
+    RedisFacade facade = store();
     try
     {
       EntityRepresentation representation = EntityRepresentation.forClass(claz);
+      Field f = representation.getField(p);
       String table = representation.getTable();
+      String column = representation.getColumn(p);
       read++;
-      if (!store.exists(table, id))
-      {
-        return null;
-      }
-      entity = claz.newInstance();
-      representation.setId(entity, id);
-      store.processFields(entity, representation, id);
-      read++;
-      if (Rojo.cacheable && representation.isCacheable())
-      {
-        cache(entity, id);
-      }
-      return entity;
+      return facade.rank(table, column, f, id);
     } catch (Exception e)
     {
-      store.reset();
+      facade.reset();
       LOG.log(Level.SEVERE, "rojo error :{0}", stackTrace(e));
-      throw new RepositoryError(e);
+      return -1;
+    } finally
+    {
+      release(facade);
     }
   }
 
   /**
-   * exist
+   * index size
    *
    * @param claz
-   * @param id
+   * @param p
+   * @param v
    * @return
    */
-  public boolean exist(Class claz, String id)
+  public long indexSize(Class claz, String p, Object v)
   {
+    RedisFacade facade = store();
     try
     {
       EntityRepresentation representation = EntityRepresentation.forClass(claz);
       String table = representation.getTable();
+      String column = representation.getColumn(p);
+      long s = facade.indexSize(table, column, v);
       read++;
-      return store.exists(table, id);
+      return s;
     } catch (Exception e)
     {
-      store.reset();
+      facade.reset();
       LOG.log(Level.SEVERE, "rojo error :{0}", stackTrace(e));
+    } finally
+    {
+      release(facade);
     }
-    return false;
+    return -1;
   }
 
   /**
-   * get a property
+   * the indexings
    *
    * @param <T>
    * @param claz
-   * @param id
    * @param p
+   * @param v
    * @return
    */
-  public <T> T get(Class<T> claz, String id, String p)
+  public <T> Set<T> index(Class<T> claz, String p, Object v)
+  {
+    return this.index(claz, p, v, 0, -1);
+  }
+
+  /**
+   * indexing with range(index sorted by createTime asc)
+   *
+   * @param <T>
+   * @param claz
+   * @param p
+   * @param v
+   * @param start
+   * @param end
+   * @return
+   */
+  public <T> Set<T> index(Class<T> claz, String p, Object v, long start, long end)
   {
+    RedisFacade facade = store();
     try
     {
       EntityRepresentation representation = EntityRepresentation.forClass(claz);
-      Field f = representation.getField(p);
       String table = representation.getTable();
       String column = representation.getColumn(p);
-      if (Rojo.cacheable && representation.isCacheable())
-      {
-        Object entity = getFromCache(claz, id);
-        if (entity != null)
-        {
-          return (T) f.get(entity);
-        }
-      }
+      Set<String> s = facade.index(table, column, v, start, end);
       read++;
-      if (Collection.class.isAssignableFrom(f.getType()))
-      {
-        Collection holder = RedisFacade.initCollectionHolder(f);
-        store.readValues(table, id, column, f, holder);
-        return (T) holder;
-      } else if (Map.class.isAssignableFrom(f.getType()))
-      {
-        Map map = RedisFacade.initMapHolder(f);
-        store.readValues(table, id, column, f, map);
-        return (T) map;
-      } else
-      {
-        return store.readValue(table, id, column, f);
-      }
+      return new LinkedHashSet<>(this.getAll(claz, s));
     } catch (Exception e)
     {
-      store.reset();
+      facade.reset();
       LOG.log(Level.SEVERE, "rojo error :{0}", stackTrace(e));
+    } finally
+    {
+      release(facade);
     }
     return null;
   }
 
   /**
-   * delete and flush
-   *
-   * @param entity
-   */
-  public void deleteAndFlush(Object entity)
-  {
-    this.delete(entity);
-    write++;
-    flush();
-  }
-
-  /**
-   * delete by id
+   * iterate the indexings lazily (index sorted by createTime asc)
    *
+   * @param <T>
    * @param claz
-   * @param id
+   * @param p
+   * @param v
+   * @param chunk ids loaded per batch
+   * @return
    */
-  public void deleteAndFlush(Class claz, String id)
+  public <T> Iterator<T> iterateIndex(Class<T> claz, String p, final Object v, int chunk)
   {
-    Object temp = this.get(claz, id);
-    if (temp != null)
+    EntityRepresentation representation = EntityRepresentation.forClass(claz);
+    final String table = representation.getTable();
+    final String column = representation.getColumn(p);
+    return new EntityIterator<T>(this, claz, chunk)
     {
-      this.deleteAndFlush(temp);
-    }
+      @Override
+      Collection<String> page(long offset, int count)
+      {
+        RedisFacade facade = store();
+        try
+        {
+          read++;
+          return facade.index(table, column, v, offset, offset + count - 1);
+        } catch (Exception e)
+        {
+          facade.reset();
+          LOG.log(Level.SEVERE, "rojo error :{0}", stackTrace(e));
+          throw new RepositoryError(e);
+        } finally
+        {
+          release(facade);
+        }
+      }
+    };
   }
 
   /**
-   * delete by class
+   * unique object
    *
+   * @param <T>
    * @param claz
+   * @param v
+   * @return
    */
-  public void deleteAndFlush(Class claz)
+  public <T> T unique(Class<T> claz, Object v)
   {
+    RedisFacade facade = store();
     try
     {
       EntityRepresentation representation = EntityRepresentation.forClass(claz);
+      Field unique = representation.getUnique();
       String table = representation.getTable();
-      store.delKeys(table);
+      String column = representation.getColumn(unique.getName());
+      String id = facade.unique(table, column, v.toString());
       read++;
-      write++;
-      if (Rojo.cacheable && representation.isCacheable())
-      {
-        cache.evict(claz);
-      }
+      return id == null ? null : this.get(claz, id);
     } catch (Exception e)
     {
-      store.reset();
+      facade.reset();
       LOG.log(Level.SEVERE, "rojo error :{0}", stackTrace(e));
+    } finally
+    {
+      release(facade);
     }
+    return null;
   }
 
   /**
-   * delete entity
+   * cache
    *
    * @param entity
    */
-  public void delete(Object entity)
+  private void cache(Object entity, String id)
   {
-    if (entity == null)
+    if (cache != null)
     {
-      return;
+      cache.cache(entity, id);
     }
-    Class claz = entity.getClass();
-    try
-    {
-      EntityRepresentation representation = EntityRepresentation.forClass(claz);
-      String table = representation.getTable();
-      String id = representation.getId(entity);
-      if (id == null)
-      {
-        return;
-      }
-      Field unique = representation.getUnique();
-      if (unique != null)
-      {
-        store.removeUnique(entity, unique, table, representation.getColumn(unique.getName()));
-      }
-      Field[] fs = representation.getFields();
-      String[] columns = representation.getColumns();
-      for (int i = 0; i < fs.length; i++)
-      {
-        Field field = fs[i];
-        store.delete(table, id, columns[i], field);//collection or map
-        Index index = field.getAnnotation(Index.class);
-        if (index != null)
-        {
-          try
-          {
-            Object v = field.get(entity);
-            if (v != null)
-            {
-              store.deleteIndex(table, columns[i], v.toString(), id);
-            }
-          } catch (Exception e)
-          {
-            LOG.log(Level.WARNING, "rojo error :{0}", e.getMessage());
-          }
-        }
-      }
-      store.delete(table, id);//all simple properties
-      store.deleteId(table, id);//id
-      if (Rojo.cacheable && representation.isCacheable())
-      {
-        evict(claz, id);
-      }
-    } catch (Exception e)
+  }
+
+  /**
+   *
+   * @param <T>
+   * @param claz
+   * @param id
+   * @return
+   */
+  private <T> T getFromCache(Class<T> claz, String id)
+  {
+    return cache == null ? null : cache.get(claz, id);
+  }
+
+  /**
+   * the cached entities of ids (null if missed),in one pass if the cache is a
+   * BatchCache
+   *
+   * @param <T>
+   * @param claz
+   * @param ids
+   * @return
+   */
+  private <T> List<T> fromCache(Class<T> claz, List<String> ids)
+  {
+    Cache c = cache;
+    if (c instanceof BatchCache)
     {
-      store.reset();
-      LOG.log(Level.SEVERE, "rojo error :{0}", stackTrace(e));
+      return ((BatchCache) c).get(claz, ids);
+    }
+    List<T> r = new ArrayList<>(ids.size());
+    for (String id : ids)
+    {
+      r.add(c.get(claz, id));
     }
+    return r;
   }
 
   /**
-   * the range
+   * is the id known to be absent (bloom filter or negative cache)
    *
-   * @param <T>
    * @param claz
-   * @param p
-   * @param start
-   * @param end
+   * @param id
    * @return
    */
-  public <T> Set<T> range(Class<T> claz, String p, long start, long end)
+  private boolean isAbsent(Class claz, String id)
   {
-    try
+    EntityRepresentation representation = EntityRepresentation.forClass(claz);
+    if (representation.getBloom() > 0 && soleWriter)
     {
-      EntityRepresentation representation = EntityRepresentation.forClass(claz);
-      Field f = representation.getField(p);
-      String table = representation.getTable();
-      String column = representation.getColumn(f.getName());
-      Set<String> s = store.range(table, column, f, start, end);
-      read++;
-      Set<T> r = new LinkedHashSet<>(s.size());
-      for (String item : s)
+      BloomFilter bf = bloomFilter(representation);
+      if (!bf.isReady())
       {
-        r.add(this.get(claz, item));
+        seedLater(representation.getTable(), bf);
+      }
+      if (bf.isReady() && !bf.mightContain(id))
+      {
+        return true;
       }
-      return r;
-    } catch (Exception e)
-    {
-      store.reset();
-      LOG.log(Level.SEVERE, "rojo error :{0}", e.getMessage());
     }
-    return null;
+    NegativeCache nc = negativeCache;
+    return nc != null && nc.contains(claz, id);
   }
 
   /**
-   * range by score
+   * the bloom filter of table (may not be seeded yet)
    *
-   * @param <T>
-   * @param claz
-   * @param p
-   * @param start
-   * @param end
+   * @param representation
    * @return
    */
-  public <T> Set<T> scoreRange(Class<T> claz, String p, double start, double end)
+  private BloomFilter bloomFilter(EntityRepresentation representation)
   {
-    try
+    String table = representation.getTable();
+    BloomFilter bf = blooms.get(table);
+    if (bf == null)
     {
-      EntityRepresentation representation = EntityRepresentation.forClass(claz);
-      Field f = representation.getField(p);
-      String table = representation.getTable();
-      String column = representation.getColumn(f.getName());
-      Set<String> s = store.scoreRange(table, column, f, start, end);
-      read++;
-      Set<T> r = new LinkedHashSet<>(s.size());
-      for (String item : s)
+      bf = new BloomFilter(representation.getBloom(), representation.getBloomFpp());
+      BloomFilter old = blooms.putIfAbsent(table, bf);
+      if (old != null)
       {
-        r.add(this.get(claz, item));
+        bf = old;
       }
-      return r;
-    } catch (Exception e)
-    {
-      store.reset();
-      LOG.log(Level.SEVERE, "rojo error :{0}", e.getMessage());
     }
-    return null;
+    return bf;
   }
 
   /**
-   * index of rank
+   * seed the bloom filter of table without blocking the read (the filter is
+   * not used meanwhile): in the background with a thread safe repository,one
+   * scan page per read on a single connection
    *
-   * @param claz
-   * @param id
-   * @param p
-   * @return
+   * @param table
+   * @param bf
    */
-  public long rank(Class claz, String id, String p)
+  private void seedLater(final String table, final BloomFilter bf)
   {
-    try
+    if (backend == null)
     {
-      EntityRepresentation representation = EntityRepresentation.forClass(claz);
-      Field f = representation.getField(p);
-      String table = representation.getTable();
-      String column = representation.getColumn(p);
-      read++;
-      return store.rank(table, column, f, id);
-    } catch (Exception e)
+      seedStep(table, bf);
+    } else if (seeding.add(table))
     {
-      store.reset();
-      LOG.log(Level.SEVERE, "rojo error :{0}", stackTrace(e));
-      return -1;
+      SEEDS.execute(new Runnable()
+      {
+        @Override
+        public void run()
+        {
+          try
+          {
+            seedBloom(table, bf);
+          } finally
+          {
+            seeding.remove(table);
+          }
+        }
+      });
     }
   }
 
   /**
-   * index size
+   * the next scan page of a seeding step by step
    *
-   * @param claz
-   * @param p
-   * @param v
-   * @return
+   * @param table
+   * @param bf
    */
-  public long indexSize(Class claz, String p, Object v)
+  private void seedStep(String table, BloomFilter bf)
   {
+    if (store.isPending())//a blocking scan can't run before the flush
+    {
+      return;
+    }
+    String cursor = seedCursors.get(table);
     try
     {
-      EntityRepresentation representation = EntityRepresentation.forClass(claz);
-      String table = representation.getTable();
-      String column = representation.getColumn(p);
-      long s = store.indexSize(table, column, v);
+      List<String> ids = new ArrayList<>(BLOOM_SEED_STEP);
+      cursor = store.scanIds(table, cursor == null ? "0" : cursor, BLOOM_SEED_STEP, ids);
       read++;
-      return s;
+      for (String id : ids)
+      {
+        bf.put(id);
+      }
+      if ("0".equals(cursor))
+      {
+        seedCursors.remove(table);
+        bf.setReady(true);
+      } else
+      {
+        seedCursors.put(table, cursor);
+      }
     } catch (Exception e)
     {
       store.reset();
       LOG.log(Level.SEVERE, "rojo error :{0}", stackTrace(e));
     }
-    return -1;
   }
 
   /**
-   * the indexings
+   * fill the bloom filter with the ids of table (the caller holds the
+   * seeding of table)
    *
-   * @param <T>
-   * @param claz
-   * @param p
-   * @param v
-   * @return
+   * @param table
+   * @param bf
    */
-  public <T> Set<T> index(Class<T> claz, String p, Object v)
+  private void seedBloom(String table, BloomFilter bf)
   {
-    return this.index(claz, p, v, 0, -1);
+    RedisFacade facade = store();
+    try
+    {
+      List<String> ids = new ArrayList<>(BLOOM_SEED_PAGE);
+      String cursor = "0";
+      do
+      {
+        ids.clear();
+        cursor = facade.scanIds(table, cursor, BLOOM_SEED_PAGE, ids);
+        read++;
+        for (String id : ids)
+        {
+          bf.put(id);
+        }
+      } while (!"0".equals(cursor));
+      bf.setReady(true);
+    } catch (Exception e)
+    {
+      facade.reset();
+      LOG.log(Level.SEVERE, "rojo error :{0}", stackTrace(e));
+    } finally
+    {
+      release(facade);
+    }
   }
 
   /**
-   * indexing with range(index sorted by createTime asc)
+   * drop the bloom filter of claz and seed a new one (ids deleted are only
+   * removed from the filter this way)
    *
-   * @param <T>
    * @param claz
-   * @param p
-   * @param v
-   * @param start
-   * @param end
-   * @return
    */
-  public <T> Set<T> index(Class<T> claz, String p, Object v, long start, long end)
+  public void rebuildBloom(Class claz)
   {
-    try
+    EntityRepresentation representation = EntityRepresentation.forClass(claz);
+    if (representation.getBloom() > 0 && soleWriter)
     {
-      EntityRepresentation representation = EntityRepresentation.forClass(claz);
       String table = representation.getTable();
-      String column = representation.getColumn(p);
-      Set<String> s = store.index(table, column, v, start, end);
-      read++;
-      Set<T> r = new LinkedHashSet<>(s.size());
-      for (String item : s)
+      BloomFilter bf = new BloomFilter(representation.getBloom(), representation.getBloomFpp());
+      blooms.put(table, bf);
+      seedCursors.remove(table);
+      if (seeding.add(table))
       {
-        r.add(this.get(claz, item));
+        try
+        {
+          seedBloom(table, bf);
+        } finally
+        {
+          seeding.remove(table);
+        }
       }
-      return r;
-    } catch (Exception e)
-    {
-      store.reset();
-      LOG.log(Level.SEVERE, "rojo error :{0}", stackTrace(e));
     }
-    return null;
+  }
+  public boolean isSoleWriter()
+  {
+    return soleWriter;
   }
 
   /**
-   * unique object
+   * this repository is the only writer of the tables with a bloom filter
+   * (Entity.bloom): no other repository,process or client adds their ids.
+   * The filters are used only then,an id added by another writer would be
+   * answered absent for ever. The filters are seeded again when this is set.
    *
-   * @param <T>
-   * @param claz
-   * @param v
-   * @return
+   * @param soleWriter
    */
-  public <T> T unique(Class<T> claz, Object v)
+  public void setSoleWriter(boolean soleWriter)
   {
-    try
-    {
-      EntityRepresentation representation = EntityRepresentation.forClass(claz);
-      Field unique = representation.getUnique();
-      String table = representation.getTable();
-      String column = representation.getColumn(unique.getName());
-      String id = store.unique(table, column, v.toString());
-      read++;
-      return id == null ? null : this.get(claz, id);
-    } catch (Exception e)
+    this.soleWriter = soleWriter;
+    blooms.clear();
+    seedCursors.clear();
+  }
+
+
+  /**
+   * remember the state of an entity (dirty tracking)
+   *
+   * @param entity
+   * @param representation
+   * @param id
+   * @throws IllegalAccessException
+   */
+  private static void snapshot(Object entity, EntityRepresentation representation, String id) throws IllegalAccessException
+  {
+    Snapshots ss = snapshots;
+    if (ss != null)
     {
-      store.reset();
-      LOG.log(Level.SEVERE, "rojo error :{0}", stackTrace(e));
+      ss.take(entity, representation, id);
     }
-    return null;
+  }
+
+  public static boolean isDirtyTracking()
+  {
+    return snapshots != null;
   }
 
   /**
-   * cache
+   * track the fields changed since an entity was read or written,so
+   * update(entity) writes only them (rojo.dirty.size snapshots at most)
    *
-   * @param entity
+   * @param tracking
    */
-  private void cache(Object entity, String id)
+  public static void setDirtyTracking(boolean tracking)
   {
-    if (cache != null)
+    snapshots = tracking ? new Snapshots(Integer.parseInt(System.getProperty("rojo.dirty.size", "100000"))) : null;
+  }
+
+  private static void rememberAbsent(Class claz, String id)
+  {
+    NegativeCache nc = negativeCache;
+    if (nc != null)
     {
-      cache.cache(entity, id);
+      nc.put(claz, id);
+    }
+  }
+
+  private static void forgetAbsent(Class claz, String id)
+  {
+    NegativeCache nc = negativeCache;
+    if (nc != null)
+    {
+      nc.evict(claz, id);
     }
   }
 
   /**
+   * the negative cache (null if disabled)
    *
-   * @param <T>
-   * @param claz
-   * @param id
    * @return
    */
-  private <T> T getFromCache(Class<T> claz, String id)
+  public static NegativeCache getNegativeCache()
   {
-    return cache == null ? null : cache.get(claz, id);
+    return negativeCache;
+  }
+
+  /**
+   * enable (or disable with null) the negative cache
+   *
+   * @param negativeCache
+   */
+  public static void setNegativeCache(NegativeCache negativeCache)
+  {
+    Rojo.negativeCache = negativeCache;
   }
 
   /**
@@ -934,6 +2691,38 @@ public class Rojo
     return cache == null ? null : cache.getCacheoutListerner();
   }
 
+  /**
+   * resolve negative ranks of a zset
+   *
+   * @param start
+   * @param end
+   * @param size size of zset (only used for negative ranks)
+   * @return {start,end} (end -1 means the end of zset) or null if empty
+   */
+  private static long[] ranks(long start, long end, long size)
+  {
+    if (start < 0)
+    {
+      start = Math.max(0, size + start);
+    }
+    if (end < -1)
+    {
+      end = size + end;
+      if (end < 0)
+      {
+        return null;
+      }
+    }
+    if (end >= 0 && start > end)
+    {
+      return null;
+    }
+    return new long[]
+    {
+      start, end
+    };
+  }
+
   private static boolean isEmpty(String id)
   {
     return id == null || id.isEmpty();
@@ -949,6 +2738,95 @@ public class Rojo
     return write;
   }
 
+  public static boolean isScriptRead()
+  {
+    return scriptRead;
+  }
+
+  /**
+   * read entities with a lua script (one atomic reply per entity)
+   *
+   * @param scriptRead
+   */
+  public static void setScriptRead(boolean scriptRead)
+  {
+    Rojo.scriptRead = scriptRead;
+  }
+
+  public static int getTrimSlack()
+  {
+    return RedisFacade.trimSlack;
+  }
+
+  /**
+   * trim a capped sorted property (@Value(sort=true,size=n)) once it holds
+   * more than n+slack members instead of on every write,0 trims on every
+   * write. The size is counted by redis,so the bound holds for all the
+   * writing processes. Reads stay exact,members past the cap are never
+   * returned.
+   *
+   * @param slack
+   */
+  public static void setTrimSlack(int slack)
+  {
+    if (slack < 0)
+    {
+      throw new IllegalArgumentException("slack must be >= 0");
+    }
+    RedisFacade.trimSlack = slack;
+  }
+
+  /**
+   * trim the capped sorted properties of claz now (e.g. from a scheduled
+   * task when the slack is large)
+   *
+   * @param claz
+   */
+  public void trim(Class claz)
+  {
+    RedisFacade facade = store();
+    try
+    {
+      EntityRepresentation representation = EntityRepresentation.forClass(claz);
+      Field[] fs = representation.getFields();
+      String[] columns = representation.getColumns();
+      for (int i = 0; i < fs.length; i++)
+      {
+        Value annotation = fs[i].getAnnotation(Value.class);
+        if (annotation != null && annotation.sort() && annotation.size() > 0)
+        {
+          facade.trim(representation.getTable(), columns[i], annotation);
+        }
+      }
+      facade.flush();
+      write++;
+    } catch (Exception e)
+    {
+      facade.reset();
+      LOG.log(Level.SEVERE, "rojo error :{0}", stackTrace(e));
+      throw new RepositoryError(e);
+    } finally
+    {
+      release(facade);
+    }
+  }
+
+  public static boolean isScriptSave()
+  {
+    return scriptSave;
+  }
+
+  /**
+   * save entities with a lua script (unique reservation and all writes in one
+   * atomic call,the save is sent at once)
+   *
+   * @param scriptSave
+   */
+  public static void setScriptSave(boolean scriptSave)
+  {
+    Rojo.scriptSave = scriptSave;
+  }
+
   public static boolean isCacheable()
   {
     return cacheable;
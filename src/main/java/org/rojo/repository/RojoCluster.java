@@ -0,0 +1,167 @@
+/**
+ * redis cluster
+ */
+package org.rojo.repository;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.apache.commons.pool2.impl.GenericObjectPoolConfig;
+import org.rojo.exceptions.RojoException;
+import redis.clients.jedis.HostAndPort;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.Protocol;
+import redis.clients.util.JedisClusterCRC16;
+
+/**
+ * The nodes of a redis cluster and the slot map (CLUSTER SLOTS),one pool per
+ * master. Give it to Rojo(RojoCluster). The keys of an entity are tagged
+ * {table:id} so they share a slot,the read of an entity goes to one node.
+ * The slot map is reloaded when an operation fails (e.g. MOVED after a
+ * resharding),the failed operation is not retried.
+ *
+ * @author beykery
+ */
+public class RojoCluster implements Router
+{
+
+  private static final Logger LOG = Logger.getLogger(RojoCluster.class.getName());
+  private static final int SLOTS = 16384;
+  private final GenericObjectPoolConfig config;
+  private final int timeout;
+  private final Set<HostAndPort> seeds;
+  private final Map<String, JedisPool> nodes = new ConcurrentHashMap<>();//host:port -> pool
+  private volatile JedisPool[] slots = new JedisPool[SLOTS];
+
+  public RojoCluster(Set<HostAndPort> seeds)
+  {
+    this(seeds, new GenericObjectPoolConfig(), Protocol.DEFAULT_TIMEOUT);
+  }
+
+  /**
+   *
+   * @param seeds some nodes of the cluster
+   * @param config pool config of every node
+   * @param timeout
+   */
+  public RojoCluster(Set<HostAndPort> seeds, GenericObjectPoolConfig config, int timeout)
+  {
+    this.seeds = new LinkedHashSet<>(seeds);
+    this.config = config;
+    this.timeout = timeout;
+    refresh();
+  }
+
+  @Override
+  public RedisFacade open()
+  {
+    return new RoutedFacade(this);
+  }
+
+  @Override
+  public JedisPool node(String key)
+  {
+    int slot = JedisClusterCRC16.getSlot(key);
+    JedisPool pool = slots[slot];
+    if (pool == null)
+    {
+      refresh();
+      pool = slots[slot];
+      if (pool == null)
+      {
+        throw new RojoException("no node serves slot " + slot);
+      }
+    }
+    return pool;
+  }
+
+  @Override
+  public Collection<JedisPool> nodes()
+  {
+    Set<JedisPool> masters = new LinkedHashSet<>();
+    for (JedisPool pool : slots)
+    {
+      if (pool != null)
+      {
+        masters.add(pool);
+      }
+    }
+    return masters;
+  }
+
+  /**
+   * reload the slot map from a known node
+   */
+  @Override
+  public synchronized void refresh()
+  {
+    List<HostAndPort> tries = new ArrayList<>();
+    for (String node : nodes.keySet())
+    {
+      tries.add(HostAndPort.parseString(node));
+    }
+    tries.addAll(seeds);
+    for (HostAndPort hp : tries)
+    {
+      try (Jedis j = new Jedis(hp.getHost(), hp.getPort(), timeout))
+      {
+        JedisPool[] map = new JedisPool[SLOTS];
+        for (Object o : j.clusterSlots())
+        {
+          List<Object> range = (List<Object>) o;
+          List<Object> master = (List<Object>) range.get(2);
+          String host = new String((byte[]) master.get(0), "UTF-8");
+          if (host.isEmpty())
+          {
+            host = hp.getHost();
+          }
+          JedisPool pool = pool(host, ((Long) master.get(1)).intValue());
+          for (int s = ((Long) range.get(0)).intValue(); s <= ((Long) range.get(1)).intValue(); s++)
+          {
+            map[s] = pool;
+          }
+        }
+        slots = map;
+        return;
+      } catch (Exception e)
+      {
+        LOG.log(Level.WARNING, "cluster slots from {0} failed :{1}", new Object[]
+        {
+          hp, e.getMessage()
+        });
+      }
+    }
+    throw new RojoException("no reachable cluster node");
+  }
+
+  private JedisPool pool(String host, int port)
+  {
+    String name = host + ":" + port;
+    JedisPool pool = nodes.get(name);
+    if (pool == null)
+    {
+      pool = new JedisPool(config, host, port, timeout);
+      nodes.put(name, pool);
+    }
+    return pool;
+  }
+
+  /**
+   * close the pools
+   */
+  public void close()
+  {
+    for (JedisPool pool : nodes.values())
+    {
+      pool.destroy();
+    }
+    nodes.clear();
+  }
+}
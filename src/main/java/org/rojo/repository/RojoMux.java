@@ -0,0 +1,57 @@
+/**
+ * multiplexed connection
+ */
+package org.rojo.repository;
+
+import java.util.concurrent.TimeUnit;
+import redis.clients.jedis.HostAndPort;
+import redis.clients.jedis.Protocol;
+
+/**
+ * One redis connection shared by all the threads: every sync of a thread is
+ * queued as a batch,a writer thread sends all the batches queued meanwhile
+ * with one socket write (after waiting rojo.mux.linger microseconds for more
+ * if the queue is empty) and the replies come back to each thread. Many
+ * concurrent threads get the throughput of a pipeline without a connection
+ * per thread. Give it to Rojo(RojoMux). Blocking commands (BLPOP,SUBSCRIBE)
+ * and WATCH are not supported,a MULTI/EXEC queued in one pipeline is.
+ *
+ * @author beykery
+ */
+public class RojoMux implements Backend
+{
+
+  private final Multiplexer mux;
+
+  public RojoMux(HostAndPort node)
+  {
+    this(node, Protocol.DEFAULT_TIMEOUT, null, Protocol.DEFAULT_DATABASE);
+  }
+
+  /**
+   *
+   * @param node
+   * @param timeout connect timeout and reply timeout (ms)
+   * @param password null if none
+   * @param database
+   */
+  public RojoMux(HostAndPort node, int timeout, String password, int database)
+  {
+    long linger = TimeUnit.MICROSECONDS.toNanos(Long.parseLong(System.getProperty("rojo.mux.linger", "0")));
+    mux = new Multiplexer(node.getHost(), node.getPort(), timeout, password, database, linger);
+  }
+
+  @Override
+  public RedisFacade open()
+  {
+    return new MuxFacade(mux);
+  }
+
+  /**
+   * close the connection
+   */
+  public void close()
+  {
+    mux.close();
+  }
+}
@@ -0,0 +1,242 @@
+/**
+ * read replicas
+ */
+package org.rojo.repository;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import redis.clients.jedis.JedisPool;
+
+/**
+ * A master and its replicas: writes go to the master,reads are spread over
+ * the replicas (round robin). For a while after an entity is written (the
+ * window,rojo.replica.window milliseconds) its reads go to the master,so a
+ * writer sees its own writes even if the replicas lag. The keys of a table
+ * (ranges,indexes,uniques) are read from the replicas,they may lag by the
+ * replication delay. Give it to Rojo(RojoReplicas). With hedged reads
+ * (rojo.hedge) the read of an entity not answered within a percentile of the
+ * recent read latencies (rojo.hedge.percentile,at least rojo.hedge.min
+ * milliseconds) is sent again to another replica (the master if there is one
+ * replica),the first reply wins. A read failing is sent to the other node
+ * at once. The hedged reads run on at most rojo.hedge.threads threads (64),
+ * past them the reads are not hedged.
+ *
+ * @author beykery
+ */
+public class RojoReplicas implements Backend
+{
+
+  private static final int PURGE_SIZE = 10000;//purge the expired windows past this size
+  private final JedisPool master;
+  private final List<JedisPool> replicas;
+  private final long window;
+  private final AtomicInteger next = new AtomicInteger();
+  private final Map<String, Long> recent = new ConcurrentHashMap<>();//entity -> end of window
+  private final Latencies latencies = new Latencies(1024, Double.parseDouble(System.getProperty("rojo.hedge.percentile", "95")));
+  private volatile boolean hedged = Boolean.parseBoolean(System.getProperty("rojo.hedge", "false"));
+  private volatile long hedgeMin = TimeUnit.MILLISECONDS.toNanos(Long.parseLong(System.getProperty("rojo.hedge.min", "1")));
+
+  public RojoReplicas(JedisPool master, List<JedisPool> replicas)
+  {
+    this(master, replicas, Long.parseLong(System.getProperty("rojo.replica.window", "1000")));
+  }
+
+  /**
+   *
+   * @param master
+   * @param replicas
+   * @param window milliseconds an entity is read from the master after it is
+   * written
+   */
+  public RojoReplicas(JedisPool master, List<JedisPool> replicas, long window)
+  {
+    if (replicas.isEmpty())
+    {
+      throw new IllegalArgumentException("no replica");
+    }
+    this.master = master;
+    this.replicas = new ArrayList<>(replicas);
+    this.window = window;
+  }
+
+  @Override
+  public RedisFacade open()
+  {
+    return new ReplicaFacade(this);
+  }
+
+  /**
+   * the next replica
+   *
+   * @return
+   */
+  JedisPool replica()
+  {
+    return replica(next());
+  }
+
+  /**
+   * the index of the next replica
+   *
+   * @return
+   */
+  int next()
+  {
+    return next.getAndIncrement() & Integer.MAX_VALUE;
+  }
+
+  /**
+   * a replica
+   *
+   * @param i any index
+   * @return
+   */
+  JedisPool replica(int i)
+  {
+    return replicas.get(i % replicas.size());
+  }
+
+  /**
+   * the node a read sent to replica i is hedged to
+   *
+   * @param i
+   * @return
+   */
+  JedisPool hedge(int i)
+  {
+    return replicas.size() > 1 ? replicas.get((i + 1) % replicas.size()) : master;
+  }
+
+  /**
+   * the delay before a hedged read is sent again
+   *
+   * @return nanos
+   */
+  long hedgeDelay()
+  {
+    return Math.max(hedgeMin, latencies.percentile());
+  }
+
+  /**
+   * a read latency
+   *
+   * @param nanos
+   */
+  void latency(long nanos)
+  {
+    latencies.add(nanos);
+  }
+
+  /**
+   * the replicas
+   *
+   * @return
+   */
+  List<JedisPool> replicas()
+  {
+    return replicas;
+  }
+
+  /**
+   * entities written to the master just now
+   *
+   * @param entities
+   */
+  void written(Collection<String> entities)
+  {
+    long now = System.currentTimeMillis();
+    for (String entity : entities)
+    {
+      recent.put(entity, now + window);
+    }
+    if (recent.size() > PURGE_SIZE)
+    {
+      Iterator<Long> it = recent.values().iterator();
+      while (it.hasNext())
+      {
+        if (it.next() <= now)
+        {
+          it.remove();
+        }
+      }
+    }
+  }
+
+  /**
+   * is the entity of key in its window (read it from the master)
+   *
+   * @param key
+   * @return
+   */
+  boolean isFresh(String key)
+  {
+    String entity = RedisFacade.entityOf(key);
+    if (entity == null)
+    {
+      return false;
+    }
+    Long until = recent.get(entity);
+    if (until == null)
+    {
+      return false;
+    }
+    if (until <= System.currentTimeMillis())
+    {
+      recent.remove(entity, until);
+      return false;
+    }
+    return true;
+  }
+
+  public JedisPool getMaster()
+  {
+    return master;
+  }
+
+  public long getWindow()
+  {
+    return window;
+  }
+
+  public boolean isHedged()
+  {
+    return hedged;
+  }
+
+  /**
+   * hedge the reads of entities
+   *
+   * @param hedged
+   */
+  public void setHedged(boolean hedged)
+  {
+    this.hedged = hedged;
+  }
+
+  /**
+   *
+   * @param millis the least delay before a read is hedged
+   */
+  public void setHedgeMin(long millis)
+  {
+    this.hedgeMin = TimeUnit.MILLISECONDS.toNanos(millis);
+  }
+
+  /**
+   * close the pools
+   */
+  public void close()
+  {
+    master.destroy();
+    for (JedisPool pool : replicas)
+    {
+      pool.destroy();
+    }
+  }
+}
@@ -0,0 +1,149 @@
+/**
+ * unit of work
+ */
+package org.rojo.repository;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A unit of work. Saves,updates and deletes of entities (of any classes) are
+ * collected and sent on commit with one pipeline and one sync (auto ids and
+ * unique values of saved entities are reserved just before). An update without
+ * id or with an unknown property fails the commit before anything is sent. If
+ * the commit fails later the unique values of the saves not written are given
+ * back (all of them with MULTI/EXEC,without it the ops queued before the
+ * failure are sent). Not thread safe.
+ *
+ * <pre>
+ * RojoSession session = rojo.batch();
+ * session.save(a).update(b, "age").delete(c);
+ * List&lt;Object&gt; rejected = session.commit(true);
+ * </pre>
+ *
+ * @author beykery
+ */
+public class RojoSession
+{
+
+  static final int SAVE = 1;
+  static final int UPDATE = 2;
+  static final int DELETE = 3;
+
+  private final Rojo rojo;
+  private final List<Op> ops = new ArrayList<>();
+
+  RojoSession(Rojo rojo)
+  {
+    this.rojo = rojo;
+  }
+
+  /**
+   * save an entity on commit
+   *
+   * @param entity
+   * @return
+   */
+  public RojoSession save(Object entity)
+  {
+    ops.add(new Op(SAVE, entity, null));
+    return this;
+  }
+
+  /**
+   * update properties on commit
+   *
+   * @param entity
+   * @param ps
+   * @return
+   */
+  public RojoSession update(Object entity, String... ps)
+  {
+    ops.add(new Op(UPDATE, entity, ps));
+    return this;
+  }
+
+  /**
+   * update all properties (exclude unique) on commit
+   *
+   * @param entity
+   * @return
+   */
+  public RojoSession update(Object entity)
+  {
+    ops.add(new Op(UPDATE, entity, null));
+    return this;
+  }
+
+  /**
+   * delete an entity on commit
+   *
+   * @param entity
+   * @return
+   */
+  public RojoSession delete(Object entity)
+  {
+    if (entity != null)
+    {
+      ops.add(new Op(DELETE, entity, null));
+    }
+    return this;
+  }
+
+  /**
+   * send the writes with one pipeline
+   *
+   * @return entities not saved (no id or unique value taken)
+   */
+  public List<Object> commit()
+  {
+    return commit(false);
+  }
+
+  /**
+   * send the writes with one pipeline
+   *
+   * @param transactional wrap the writes with MULTI/EXEC
+   * @return entities not saved (no id or unique value taken)
+   */
+  public List<Object> commit(boolean transactional)
+  {
+    try
+    {
+      return rojo.commit(this, transactional);
+    } finally
+    {
+      ops.clear();
+    }
+  }
+
+  /**
+   * operations collected
+   *
+   * @return
+   */
+  public int size()
+  {
+    return ops.size();
+  }
+
+  List<Op> ops()
+  {
+    return ops;
+  }
+
+  static class Op
+  {
+
+    final int type;
+    final Object entity;
+    final String[] ps;
+
+    Op(int type, Object entity, String[] ps)
+    {
+      this.type = type;
+      this.entity = entity;
+      this.ps = ps;
+    }
+  }
+}
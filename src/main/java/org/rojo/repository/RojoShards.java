@@ -0,0 +1,123 @@
+/**
+ * shards
+ */
+package org.rojo.repository;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import org.apache.commons.pool2.impl.GenericObjectPoolConfig;
+import redis.clients.jedis.HostAndPort;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.Protocol;
+import redis.clients.util.Hashing;
+
+/**
+ * Standalone redis instances sharing the entities: the keys of an entity
+ * (tagged {table:id}) go to a shard picked by consistent hashing of the tag,
+ * the keys of a table (ids,sorted,index and unique keys,id counters) go to
+ * the global node. Give it to Rojo(RojoShards). The pipelines of the shards
+ * are synced in parallel,a bulk read costs one round trip per shard at the
+ * same time. Adding a shard moves about 1/n of the entities,they are not
+ * migrated.
+ *
+ * @author beykery
+ */
+public class RojoShards implements Router
+{
+
+  private static final int VIRTUAL_NODES = 160;//per shard
+  private final List<JedisPool> shards = new ArrayList<>();
+  private final JedisPool global;
+  private final TreeMap<Long, JedisPool> ring = new TreeMap<>();
+
+  /**
+   * the first node is the global node
+   *
+   * @param nodes
+   */
+  public RojoShards(List<HostAndPort> nodes)
+  {
+    this(nodes, 0, new GenericObjectPoolConfig(), Protocol.DEFAULT_TIMEOUT);
+  }
+
+  /**
+   *
+   * @param nodes the shards (a node is named host:port on the ring,so the
+   * order does not matter)
+   * @param global the index of the node holding the keys of the tables
+   * @param config pool config of every node
+   * @param timeout
+   */
+  public RojoShards(List<HostAndPort> nodes, int global, GenericObjectPoolConfig config, int timeout)
+  {
+    if (nodes.isEmpty() || global < 0 || global >= nodes.size())
+    {
+      throw new IllegalArgumentException("no node or bad global node");
+    }
+    for (HostAndPort hp : nodes)
+    {
+      JedisPool pool = new JedisPool(config, hp.getHost(), hp.getPort(), timeout);
+      shards.add(pool);
+      for (int i = 0; i < VIRTUAL_NODES; i++)
+      {
+        ring.put(Hashing.MURMUR_HASH.hash(hp.toString() + "*" + i), pool);
+      }
+    }
+    this.global = shards.get(global);
+  }
+
+  @Override
+  public RedisFacade open()
+  {
+    return new RoutedFacade(this);
+  }
+
+  @Override
+  public JedisPool node(String key)
+  {
+    int from = key.indexOf('{');
+    int to = from < 0 ? -1 : key.indexOf('}', from + 1);
+    if (to <= from + 1)
+    {
+      return global;
+    }
+    SortedMap<Long, JedisPool> tail = ring.tailMap(Hashing.MURMUR_HASH.hash(key.substring(from + 1, to)));
+    return tail.isEmpty() ? ring.firstEntry().getValue() : tail.get(tail.firstKey());
+  }
+
+  @Override
+  public Collection<JedisPool> nodes()
+  {
+    return Collections.unmodifiableList(shards);
+  }
+
+  @Override
+  public void refresh()
+  {
+  }
+
+  /**
+   * the node of the keys of the tables
+   *
+   * @return
+   */
+  public JedisPool getGlobal()
+  {
+    return global;
+  }
+
+  /**
+   * close the pools
+   */
+  public void close()
+  {
+    for (JedisPool pool : shards)
+    {
+      pool.destroy();
+    }
+  }
+}
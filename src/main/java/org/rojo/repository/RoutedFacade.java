@@ -0,0 +1,270 @@
+/**
+ * routed facade
+ */
+package org.rojo.repository;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.rojo.exceptions.RojoException;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.exceptions.JedisRedirectionException;
+
+/**
+ * A facade on several nodes (a redis cluster,shards): every key goes to the
+ * node the router picks,with one pipeline per node. The pipelines are synced
+ * in parallel,so a read or a flush costs one round trip per node (not one per
+ * node in turn). Keys of an entity are tagged {table:id} so they stay on one
+ * node. Scripts touching keys of several nodes and MULTI are not available.
+ *
+ * @author beykery
+ */
+final class RoutedFacade extends RedisFacade
+{
+
+  private static final ExecutorService SYNCS = Executors.newCachedThreadPool(new ThreadFactory()
+  {
+    @Override
+    public Thread newThread(Runnable r)
+    {
+      Thread t = new Thread(r, "rojo-cluster-sync");
+      t.setDaemon(true);
+      return t;
+    }
+  });
+  private static final Logger LOG = Logger.getLogger(RoutedFacade.class.getName());
+  private final Router router;
+  private final Map<JedisPool, Jedis> connections = new LinkedHashMap<>();//borrowed
+  private final Map<Jedis, Pipeline> pipes = new LinkedHashMap<>();
+  private final Set<Pipeline> pending = new LinkedHashSet<>();
+  private boolean refreshed;//routes reloaded by the last sync
+
+  RoutedFacade(Router router)
+  {
+    this.router = router;
+  }
+
+  @Override
+  Pipeline pipe(String key)
+  {
+    if (key == null)
+    {
+      throw new RojoException("transactions are not supported on several nodes");
+    }
+    Jedis j = jedis(key);
+    Pipeline p = pipes.get(j);
+    if (p == null)
+    {
+      p = j.pipelined();
+      pipes.put(j, p);
+    }
+    pending.add(p);
+    return p;
+  }
+
+  @Override
+  Jedis jedis(String key)
+  {
+    return connection(router.node(key));
+  }
+
+  private Jedis connection(JedisPool node)
+  {
+    Jedis j = connections.get(node);
+    if (j == null)
+    {
+      j = node.getResource();
+      connections.put(node, j);
+    }
+    return j;
+  }
+
+  @Override
+  String entityKey(String table, String id)
+  {
+    return "{" + table + ":" + id + "}";
+  }
+
+  @Override
+  boolean isScriptAcrossKeys()
+  {
+    return false;
+  }
+
+  @Override
+  boolean isPending()
+  {
+    return !pending.isEmpty();
+  }
+
+  /**
+   * sync the pipelines in parallel. A reply redirected (MOVED/ASK,the slots
+   * moved) reloads the routes and fails the sync,the caller retries on the
+   * new routes.
+   */
+  @Override
+  void sync()
+  {
+    List<Pipeline> ps = new ArrayList<>(pending);
+    pending.clear();
+    refreshed = false;
+    List<Future<List<Object>>> fs = new ArrayList<>(ps.size());
+    for (int i = 1; i < ps.size(); i++)
+    {
+      final Pipeline p = ps.get(i);
+      fs.add(SYNCS.submit(new Callable<List<Object>>()
+      {
+        @Override
+        public List<Object> call() throws Exception
+        {
+          return p.syncAndReturnAll();
+        }
+      }));
+    }
+    JedisRedirectionException moved = null;
+    if (!ps.isEmpty())
+    {
+      moved = redirection(ps.get(0).syncAndReturnAll());
+    }
+    for (Future<List<Object>> f : fs)
+    {
+      try
+      {
+        JedisRedirectionException e = redirection(f.get());
+        moved = moved == null ? e : moved;
+      } catch (ExecutionException e)
+      {
+        throw e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause() : new RojoException(e.getCause());
+      } catch (InterruptedException e)
+      {
+        Thread.currentThread().interrupt();
+        throw new RojoException(e);
+      }
+    }
+    if (moved != null)
+    {
+      refresh();
+      refreshed = true;
+      throw moved;
+    }
+    resend();
+  }
+
+  /**
+   * the first redirected reply
+   *
+   * @param replies
+   * @return null if none
+   */
+  private static JedisRedirectionException redirection(List<Object> replies)
+  {
+    for (Object r : replies)
+    {
+      if (r instanceof JedisRedirectionException)
+      {
+        return (JedisRedirectionException) r;
+      }
+    }
+    return null;
+  }
+
+  @Override
+  void flush()
+  {
+    sync();
+  }
+
+  @Override
+  void multi()
+  {
+    throw new RojoException("transactions are not supported on several nodes");
+  }
+
+  @Override
+  void exec()
+  {
+    throw new RojoException("transactions are not supported on several nodes");
+  }
+
+  @Override
+  Set<String> keys(String table)
+  {
+    Set<String> keys = new LinkedHashSet<>();
+    for (JedisPool node : router.nodes())
+    {
+      Jedis j = connection(node);
+      keys.addAll(j.keys(table + "*"));
+      keys.addAll(j.keys("{" + table + ":*"));
+    }
+    return keys;
+  }
+
+  @Override
+  void delKeys(String table)
+  {
+    for (String key : keys(table))
+    {
+      pipe(key).del(key);
+    }
+    sync();
+  }
+
+  @Override
+  Jedis getJedis()
+  {
+    return null;
+  }
+
+  @Override
+  void reset()
+  {
+    for (Jedis j : connections.values())
+    {
+      j.resetState();
+    }
+    pipes.clear();
+    pending.clear();
+    queued.clear();
+    if (!refreshed)
+    {
+      refresh();//the routes may be stale
+    }
+    refreshed = false;
+  }
+
+  private void refresh()
+  {
+    try
+    {
+      router.refresh();
+    } catch (RojoException e)
+    {
+      LOG.log(Level.WARNING, "route refresh failed :{0}", e.getMessage());
+    }
+  }
+
+  @Override
+  void close()
+  {
+    for (Jedis j : connections.values())
+    {
+      j.close();
+    }
+    connections.clear();
+    pipes.clear();
+    pending.clear();
+  }
+}
@@ -0,0 +1,37 @@
+/**
+ * router
+ */
+package org.rojo.repository;
+
+import java.util.Collection;
+import redis.clients.jedis.JedisPool;
+
+/**
+ * A backend on several nodes,it tells which node serves a key (see
+ * RoutedFacade).
+ *
+ * @author beykery
+ */
+interface Router extends Backend
+{
+
+  /**
+   * the node serving key
+   *
+   * @param key
+   * @return
+   */
+  JedisPool node(String key);
+
+  /**
+   * all the nodes (to scan keys)
+   *
+   * @return
+   */
+  Collection<JedisPool> nodes();
+
+  /**
+   * reload the routes after a failure
+   */
+  void refresh();
+}
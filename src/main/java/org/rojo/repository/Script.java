@@ -0,0 +1,187 @@
+/**
+ * lua scripts
+ */
+package org.rojo.repository;
+
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import org.rojo.exceptions.RojoException;
+
+/**
+ * A lua script run with EVALSHA. The sha1 is computed locally so the script
+ * needs no SCRIPT LOAD before the first call; RedisFacade falls back to EVAL
+ * (which caches the script on the server) when the server answers NOSCRIPT,
+ * a batch of reads loads the script once and sends the failed reads again in
+ * one pipeline.
+ *
+ * @author beykery
+ */
+final class Script
+{
+
+  private static final Charset UTF8 = Charset.forName("UTF-8");
+
+  /**
+   * read an entity in one reply.
+   *
+   * KEYS[1] is the all-fields hash,KEYS[2..n] are the keys of the collection
+   * and map fields,ARGV[i] is the type ('l' list,'s' set,'h' hash) of
+   * KEYS[i+1]. A set field still stored as a list (older data) is read as a
+   * list. Returns nil if the entity does not exist.
+   */
+  static final Script READ = new Script(
+          "if redis.call('EXISTS', KEYS[1]) == 0 then return false end\n"
+          + "local r = {redis.call('HGETALL', KEYS[1])}\n"
+          + "for i = 2, #KEYS do\n"
+          + "  if ARGV[i - 1] == 'h' then\n"
+          + "    r[i] = redis.call('HGETALL', KEYS[i])\n"
+          + "  elseif ARGV[i - 1] == 's' and redis.call('TYPE', KEYS[i]).ok ~= 'list' then\n"
+          + "    r[i] = redis.call('SMEMBERS', KEYS[i])\n"
+          + "  else\n"
+          + "    r[i] = redis.call('LRANGE', KEYS[i], 0, -1)\n"
+          + "  end\n"
+          + "end\n"
+          + "return r\n");
+
+  /**
+   * save an entity atomically.
+   *
+   * ARGV[1] is the id,if ARGV[2] is '1' KEYS[1] is the unique key reserved
+   * with SETNX first (returns 0 if taken). The rest of ARGV are writes:
+   * 'Z' k score member (ZADD),'T' k limit start stop (ZREMRANGEBYRANK if the
+   * key holds more than limit members),'D' k (DEL),
+   * 'L' k n v1..vn (RPUSH),'S' k n v1..vn (SADD),'H' k n f1 v1..(HMSET with n
+   * arguments),where k is an index of KEYS. Returns 1.
+   */
+  static final Script SAVE = new Script(
+          "local id = ARGV[1]\n"
+          + "local cmds = {L = 'RPUSH', S = 'SADD', H = 'HMSET'}\n"
+          + "if ARGV[2] == '1' and redis.call('SETNX', KEYS[1], id) == 0 then return 0 end\n"
+          + "local i = 3\n"
+          + "while i <= #ARGV do\n"
+          + "  local op = ARGV[i]\n"
+          + "  local key = KEYS[tonumber(ARGV[i + 1])]\n"
+          + "  if op == 'Z' then\n"
+          + "    redis.call('ZADD', key, ARGV[i + 2], ARGV[i + 3])\n"
+          + "    i = i + 4\n"
+          + "  elseif op == 'T' then\n"
+          + "    if redis.call('ZCARD', key) > tonumber(ARGV[i + 2]) then\n"
+          + "      redis.call('ZREMRANGEBYRANK', key, ARGV[i + 3], ARGV[i + 4])\n"
+          + "    end\n"
+          + "    i = i + 5\n"
+          + "  elseif op == 'D' then\n"
+          + "    redis.call('DEL', key)\n"
+          + "    i = i + 2\n"
+          + "  else\n"
+          + "    local n = tonumber(ARGV[i + 2])\n"
+          + "    redis.call(cmds[op], key, unpack(ARGV, i + 3, i + 2 + n))\n"
+          + "    i = i + 3 + n\n"
+          + "  end\n"
+          + "end\n"
+          + "return 1\n");
+
+  /**
+   * increment a numeric field.
+   *
+   * KEYS[1] is the all-fields hash,KEYS[2] (if any) the sorted key of the
+   * field. ARGV[1] is the column,ARGV[2] the delta,ARGV[3] 'f' for a float,
+   * ARGV[4] the id,ARGV[5] (if any) the most members the sorted key holds
+   * before it is trimmed,ARGV[6] and ARGV[7] the ranks to trim. The sorted
+   * key gets the new value with ZADD (a member trimmed before comes back with
+   * the right score). Returns the new value,nil if the entity does not exist.
+   */
+  static final Script INCR = new Script(
+          "if redis.call('EXISTS', KEYS[1]) == 0 then return false end\n"
+          + "local v\n"
+          + "if ARGV[3] == 'f' then\n"
+          + "  v = redis.call('HINCRBYFLOAT', KEYS[1], ARGV[1], ARGV[2])\n"
+          + "else\n"
+          + "  v = redis.call('HINCRBY', KEYS[1], ARGV[1], ARGV[2])\n"
+          + "end\n"
+          + "if KEYS[2] then\n"
+          + "  redis.call('ZADD', KEYS[2], v, ARGV[4])\n"
+          + "  if ARGV[5] and redis.call('ZCARD', KEYS[2]) > tonumber(ARGV[5]) then\n"
+          + "    redis.call('ZREMRANGEBYRANK', KEYS[2], ARGV[6], ARGV[7])\n"
+          + "  end\n"
+          + "end\n"
+          + "return v\n");
+
+  /**
+   * add a member to a capped sorted key.
+   *
+   * KEYS[1] is the sorted key,ARGV[1] the score,ARGV[2] the member,ARGV[3]
+   * the most members the key holds before it is trimmed,ARGV[4] and ARGV[5]
+   * the ranks to trim. Its reply is read after the sync of the pipeline,the
+   * script is sent again with EVAL if the server answered NOSCRIPT. Returns
+   * 1.
+   */
+  static final Script CAP = new Script(
+          "redis.call('ZADD', KEYS[1], ARGV[1], ARGV[2])\n"
+          + "if redis.call('ZCARD', KEYS[1]) > tonumber(ARGV[3]) then\n"
+          + "  redis.call('ZREMRANGEBYRANK', KEYS[1], ARGV[4], ARGV[5])\n"
+          + "end\n"
+          + "return 1\n");
+
+  /**
+   * add or remove members of a set field.
+   *
+   * KEYS[1] is the key of the field,ARGV[1] 'a' (SADD) or 'r' (SREM),the
+   * rest of ARGV the members. A field still stored as a list (older data) is
+   * turned into a set first. Returns 1.
+   */
+  static final Script SET = new Script(
+          "local function each(cmd, vs, from)\n"
+          + "  for i = from, #vs, 1000 do\n"
+          + "    redis.call(cmd, KEYS[1], unpack(vs, i, math.min(i + 999, #vs)))\n"
+          + "  end\n"
+          + "end\n"
+          + "if redis.call('TYPE', KEYS[1]).ok == 'list' then\n"
+          + "  local old = redis.call('LRANGE', KEYS[1], 0, -1)\n"
+          + "  redis.call('DEL', KEYS[1])\n"
+          + "  each('SADD', old, 1)\n"
+          + "end\n"
+          + "each(ARGV[1] == 'a' and 'SADD' or 'SREM', ARGV, 2)\n"
+          + "return 1\n");
+
+  /**
+   * give back a unique value.
+   *
+   * KEYS[1] is the unique key,ARGV[1] the id that reserved it. The key is
+   * deleted only if it still holds that id. Returns 1 if deleted.
+   */
+  static final Script RELEASE = new Script(
+          "if redis.call('GET', KEYS[1]) == ARGV[1] then return redis.call('DEL', KEYS[1]) end\n"
+          + "return 0\n");
+
+  final byte[] body;
+  final byte[] sha;
+
+  private Script(String source)
+  {
+    this.body = source.getBytes(UTF8);
+    this.sha = sha1(body);
+  }
+
+  /**
+   * hex sha1
+   *
+   * @param body
+   * @return
+   */
+  private static byte[] sha1(byte[] body)
+  {
+    try
+    {
+      byte[] d = MessageDigest.getInstance("SHA-1").digest(body);
+      StringBuilder sb = new StringBuilder(d.length * 2);
+      for (byte b : d)
+      {
+        sb.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+      }
+      return sb.toString().getBytes(UTF8);
+    } catch (Exception e)
+    {
+      throw new RojoException("sha1 error", e);
+    }
+  }
+}
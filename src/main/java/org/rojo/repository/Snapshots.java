@@ -0,0 +1,218 @@
+/**
+ * dirty tracking
+ */
+package org.rojo.repository;
+
+import java.lang.reflect.Field;
+import java.util.Collection;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Fingerprints of the fields of the entities read or written,so an update
+ * writes only the fields changed since. A fingerprint is a 64 bit hash of the
+ * value (order free for sets and maps),the oldest snapshots go first when
+ * full. An entity without snapshot is written in full.
+ *
+ * @author beykery
+ */
+final class Snapshots
+{
+
+  private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+  private static final long FNV_PRIME = 0x100000001b3L;
+  private final int size;
+  private final LinkedHashMap<String, long[]> map = new LinkedHashMap<>();
+
+  Snapshots(int size)
+  {
+    if (size < 1)
+    {
+      throw new IllegalArgumentException("size must be > 0");
+    }
+    this.size = size;
+  }
+
+  /**
+   * remember the state of an entity
+   *
+   * @param entity
+   * @param representation
+   * @param id
+   * @throws IllegalAccessException
+   */
+  void take(Object entity, EntityRepresentation representation, String id) throws IllegalAccessException
+  {
+    Field[] fields = representation.getFields();
+    long[] fps = new long[fields.length];
+    for (int i = 0; i < fields.length; i++)
+    {
+      fps[i] = fingerprint(fields[i].get(entity));
+    }
+    String key = entity.getClass().getName() + ":" + id;
+    synchronized (this)
+    {
+      map.remove(key);
+      map.put(key, fps);
+      Iterator<long[]> it = map.values().iterator();
+      while (map.size() > size && it.hasNext())
+      {
+        it.next();
+        it.remove();
+      }
+    }
+  }
+
+  /**
+   * refresh the fields written by a partial update (if there is a snapshot)
+   *
+   * @param entity
+   * @param representation
+   * @param id
+   * @param written
+   * @throws IllegalAccessException
+   */
+  void refresh(Object entity, EntityRepresentation representation, String id, Collection<Field> written) throws IllegalAccessException
+  {
+    Field[] fields = representation.getFields();
+    long[] fps;
+    synchronized (this)
+    {
+      fps = map.get(entity.getClass().getName() + ":" + id);
+    }
+    if (fps != null)
+    {
+      for (int i = 0; i < fields.length; i++)
+      {
+        if (written.contains(fields[i]))
+        {
+          fps[i] = fingerprint(fields[i].get(entity));
+        }
+      }
+    }
+  }
+
+  /**
+   * the fields changed since the snapshot
+   *
+   * @param entity
+   * @param representation
+   * @param id
+   * @return null if there is no snapshot
+   * @throws IllegalAccessException
+   */
+  boolean[] changed(Object entity, EntityRepresentation representation, String id) throws IllegalAccessException
+  {
+    long[] fps;
+    synchronized (this)
+    {
+      fps = map.get(entity.getClass().getName() + ":" + id);
+    }
+    if (fps == null)
+    {
+      return null;
+    }
+    Field[] fields = representation.getFields();
+    boolean[] r = new boolean[fields.length];
+    for (int i = 0; i < fields.length; i++)
+    {
+      r[i] = fps[i] != fingerprint(fields[i].get(entity));
+    }
+    return r;
+  }
+
+  /**
+   * forget an entity (deleted)
+   *
+   * @param claz
+   * @param id
+   */
+  synchronized void forget(Class claz, String id)
+  {
+    map.remove(claz.getName() + ":" + id);
+  }
+
+  synchronized void clear()
+  {
+    map.clear();
+  }
+
+  synchronized int size()
+  {
+    return map.size();
+  }
+
+  /**
+   * 64 bit hash of a value
+   *
+   * @param v
+   * @return
+   */
+  static long fingerprint(Object v)
+  {
+    if (v == null)
+    {
+      return 0;
+    }
+    if (v instanceof byte[])
+    {
+      long h = FNV_OFFSET;
+      for (byte b : (byte[]) v)
+      {
+        h = (h ^ (b & 0xff)) * FNV_PRIME;
+      }
+      return mix(h);
+    }
+    if (v instanceof List)
+    {
+      long h = FNV_OFFSET;
+      for (Object o : (List) v)
+      {
+        h = (h ^ fingerprint(o)) * FNV_PRIME;
+      }
+      return mix(h);
+    }
+    if (v instanceof Collection)//order free
+    {
+      long h = ((Collection) v).size();
+      for (Object o : (Collection) v)
+      {
+        h += fingerprint(o);
+      }
+      return mix(h);
+    }
+    if (v instanceof Map)//order free
+    {
+      long h = ((Map) v).size();
+      for (Map.Entry en : ((Map<Object, Object>) v).entrySet())
+      {
+        h += mix(fingerprint(en.getKey()) * 31 + fingerprint(en.getValue()));
+      }
+      return mix(h);
+    }
+    if (v instanceof Date)
+    {
+      return mix(((Date) v).getTime());
+    }
+    String s = v.toString();
+    long h = FNV_OFFSET;
+    for (int i = 0; i < s.length(); i++)
+    {
+      h = (h ^ s.charAt(i)) * FNV_PRIME;
+    }
+    return mix(h) | 1;//never the fingerprint of null
+  }
+
+  private static long mix(long h)
+  {
+    h ^= h >>> 33;
+    h *= 0xff51afd7ed558ccdL;
+    h ^= h >>> 33;
+    h *= 0xc4ceb9fe1a85ec53L;
+    h ^= h >>> 33;
+    return h;
+  }
+}
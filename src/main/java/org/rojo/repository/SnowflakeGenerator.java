@@ -0,0 +1,144 @@
+/**
+ * snowflake generator
+ */
+package org.rojo.repository;
+
+import java.util.concurrent.atomic.AtomicLong;
+import redis.clients.jedis.Jedis;
+
+/**
+ * Time based ids made locally,no redis call: 41 bits of milliseconds since
+ * 2015-01-01,10 bits of node id,12 bits of sequence. The ids are rendered in
+ * base 36 padded to 13 chars,so the strings sort like the numbers (roughly by
+ * time). When a millisecond runs out of sequence the next id waits the next
+ * tick. When the clock goes back the ids go on from the last one (borrowing
+ * the next milliseconds) rather than stalling,so they never repeat on one
+ * node. Every process must have its own
+ * node id (rojo.node.id).
+ *
+ * @author beykery
+ */
+public class SnowflakeGenerator extends IdGenerator
+{
+
+  public static final long EPOCH = 1420070400000L;//2015-01-01
+  private static final int NODE_BITS = 10;
+  private static final int SEQUENCE_BITS = 12;
+  private static final long MAX_NODE = (1L << NODE_BITS) - 1;
+  private static final long SEQUENCE_MASK = (1L << SEQUENCE_BITS) - 1;
+  private static final int WIDTH = 13;//Long.MAX_VALUE in base 36
+  private final long node;
+  private final AtomicLong last = new AtomicLong();//time << SEQUENCE_BITS | sequence
+
+  /**
+   * node id from rojo.node.id (required,two processes on one node id would
+   * make the same ids)
+   */
+  public SnowflakeGenerator()
+  {
+    this(node());
+  }
+
+  private static long node()
+  {
+    String node = System.getProperty("rojo.node.id");
+    if (node == null)
+    {
+      throw new IllegalStateException("rojo.node.id is not set");
+    }
+    return Long.parseLong(node.trim());
+  }
+
+  /**
+   *
+   * @param node 0..1023
+   */
+  public SnowflakeGenerator(long node)
+  {
+    if (node < 0 || node > MAX_NODE)
+    {
+      throw new IllegalArgumentException("node must be in [0," + MAX_NODE + "]");
+    }
+    this.node = node;
+  }
+
+  @Override
+  public String id(Class claz, String table, Jedis je)
+  {
+    return format(next());
+  }
+
+  /**
+   * next id
+   *
+   * @return
+   */
+  public long next()
+  {
+    for (;;)
+    {
+      long prev = last.get();
+      long now = now() - EPOCH;
+      long at = prev >>> SEQUENCE_BITS;
+      long v;
+      if (now > at)
+      {
+        v = now << SEQUENCE_BITS;
+      } else if ((prev & SEQUENCE_MASK) < SEQUENCE_MASK || now < at)
+      {
+        v = prev + 1;//the clock went back,go on from the last id
+      } else
+      {
+        Thread.yield();//the millisecond ran out of sequence,wait the next tick
+        continue;
+      }
+      if (last.compareAndSet(prev, v))
+      {
+        return (v >>> SEQUENCE_BITS) << (NODE_BITS + SEQUENCE_BITS) | node << SEQUENCE_BITS | (v & SEQUENCE_MASK);
+      }
+    }
+  }
+
+  /**
+   * the clock
+   *
+   * @return
+   */
+  long now()
+  {
+    return System.currentTimeMillis();
+  }
+
+  public long getNode()
+  {
+    return node;
+  }
+
+  /**
+   * the creation time of an id
+   *
+   * @param id
+   * @return
+   */
+  public static long time(String id)
+  {
+    return (Long.parseLong(id, 36) >>> (NODE_BITS + SEQUENCE_BITS)) + EPOCH;
+  }
+
+  /**
+   * base 36,fixed width
+   *
+   * @param id
+   * @return
+   */
+  static String format(long id)
+  {
+    String s = Long.toString(id, 36);
+    StringBuilder sb = new StringBuilder(WIDTH);
+    for (int i = s.length(); i < WIDTH; i++)
+    {
+      sb.append('0');
+    }
+    return sb.append(s).toString();
+  }
+}
@@ -0,0 +1,26 @@
+/**
+ * batch cache
+ */
+package org.rojo.util;
+
+import java.util.List;
+
+/**
+ * A cache answering a list of ids in one pass (getAll falls back to one get
+ * per id for the other caches).
+ *
+ * @author beykery
+ */
+public interface BatchCache extends Cache
+{
+
+  /**
+   * get entities in one pass
+   *
+   * @param <T>
+   * @param claz
+   * @param ids
+   * @return entities in the order of ids (null if missed)
+   */
+  public <T> List<T> get(Class<T> claz, List<String> ids);
+}
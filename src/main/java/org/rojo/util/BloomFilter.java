@@ -0,0 +1,136 @@
+/**
+ * bloom filter
+ */
+package org.rojo.util;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A thread safe bloom filter of strings. mightContain never answers false for
+ * a string that was put,so a false answer means "definitely absent".
+ *
+ * @author beykery
+ */
+public class BloomFilter
+{
+
+  private final AtomicLongArray bits;
+  private final long size;//number of bits
+  private final int hashes;
+  private volatile boolean ready;
+
+  /**
+   *
+   * @param expected expected number of strings
+   * @param fpp target false positive probability
+   */
+  public BloomFilter(long expected, double fpp)
+  {
+    if (expected < 1)
+    {
+      throw new IllegalArgumentException("expected must be > 0");
+    }
+    if (fpp <= 0 || fpp >= 1)
+    {
+      throw new IllegalArgumentException("fpp must be in (0,1)");
+    }
+    long m = (long) Math.ceil(-expected * Math.log(fpp) / (Math.log(2) * Math.log(2)));
+    int words = (int) Math.min(Integer.MAX_VALUE, (m + 63) / 64);
+    this.bits = new AtomicLongArray(words);
+    this.size = words * 64L;
+    this.hashes = Math.max(1, (int) Math.round((double) size / expected * Math.log(2)));
+  }
+
+  /**
+   * put a string
+   *
+   * @param s
+   */
+  public void put(String s)
+  {
+    long h1 = hash(s);
+    long h2 = mix(h1 ^ 0x9E3779B97F4A7C15L);
+    for (int i = 0; i < hashes; i++)
+    {
+      long bit = ((h1 + i * h2) & Long.MAX_VALUE) % size;
+      int word = (int) (bit >>> 6);
+      long mask = 1L << bit;
+      long old;
+      while (((old = bits.get(word)) & mask) == 0 && !bits.compareAndSet(word, old, old | mask))
+      {
+      }
+    }
+  }
+
+  /**
+   * might the string have been put
+   *
+   * @param s
+   * @return false if s was never put
+   */
+  public boolean mightContain(String s)
+  {
+    long h1 = hash(s);
+    long h2 = mix(h1 ^ 0x9E3779B97F4A7C15L);
+    for (int i = 0; i < hashes; i++)
+    {
+      long bit = ((h1 + i * h2) & Long.MAX_VALUE) % size;
+      if ((bits.get((int) (bit >>> 6)) & (1L << bit)) == 0)
+      {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * is the filter fully seeded (only a ready filter may answer absent)
+   *
+   * @return
+   */
+  public boolean isReady()
+  {
+    return ready;
+  }
+
+  public void setReady(boolean ready)
+  {
+    this.ready = ready;
+  }
+
+  /**
+   * bits of the filter
+   *
+   * @return
+   */
+  public long size()
+  {
+    return size;
+  }
+
+  public int getHashes()
+  {
+    return hashes;
+  }
+
+  private static long hash(String s)
+  {
+    long h = 0xcbf29ce484222325L;//fnv-1a
+    for (int i = 0; i < s.length(); i++)
+    {
+      h ^= s.charAt(i);
+      h *= 0x100000001b3L;
+    }
+    return mix(h);
+  }
+
+  private static long mix(long h)
+  {
+    h ^= h >>> 33;
+    h *= 0xff51afd7ed558ccdL;
+    h ^= h >>> 33;
+    h *= 0xc4ceb9fe1a85ec53L;
+    h ^= h >>> 33;
+    return h;
+  }
+}
@@ -1,5 +1,6 @@
 package org.rojo.util;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.LinkedHashMap;
@@ -10,6 +11,7 @@ import java.util.concurrent.locks.ReentrantLock;
 import java.lang.ref.WeakReference;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
 
 /**
@@ -17,7 +19,7 @@ import java.util.Set;
  *
  * @author solr
  */
-public class LruCache implements Cache
+public class LruCache implements BatchCache
 {
 
   private final ConcurrentHashMap<Object, CacheEntry> map;
@@ -372,6 +374,18 @@ public class LruCache implements Cache
     return (T) this.get(claz.getName() + ":" + id);
   }
 
+  @Override
+  public <T> List<T> get(Class<T> claz, List<String> ids)
+  {
+    String prefix = claz.getName() + ":";
+    List<T> r = new ArrayList<>(ids.size());
+    for (String id : ids)
+    {
+      r.add((T) this.get(prefix + id));
+    }
+    return r;
+  }
+
   @Override
   public void evict(Class claz, String id)
   {
@@ -0,0 +1,124 @@
+/**
+ * negative cache
+ */
+package org.rojo.util;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Remember the ids known not to exist for a short time. Bounded by size (the
+ * least recently used entries go first) and by ttl.
+ *
+ * @author beykery
+ */
+public class NegativeCache
+{
+
+  private final int size;
+  private final long ttl;
+  private final LinkedHashMap<String, Long> map;//key -> expire time
+  private final Stats stats = new Stats();
+
+  /**
+   *
+   * @param size max entries
+   * @param ttl time to live in milliseconds
+   */
+  public NegativeCache(int size, long ttl)
+  {
+    if (size < 1)
+    {
+      throw new IllegalArgumentException("size must be > 0");
+    }
+    this.size = size;
+    this.ttl = ttl;
+    this.map = new LinkedHashMap<>(16, 0.75f, true);//access order
+  }
+
+  /**
+   * is the id known to be absent
+   *
+   * @param claz
+   * @param id
+   * @return
+   */
+  public synchronized boolean contains(Class claz, String id)
+  {
+    String key = claz.getName() + ":" + id;
+    Long expire = map.get(key);
+    if (expire != null)
+    {
+      if (expire > System.currentTimeMillis())
+      {
+        stats.accessCounter.incrementAndGet();
+        return true;
+      }
+      map.remove(key);
+      stats.size.decrementAndGet();
+      stats.evictionCounter.incrementAndGet();
+    }
+    stats.missCounter.incrementAndGet();
+    return false;
+  }
+
+  /**
+   * remember an absent id
+   *
+   * @param claz
+   * @param id
+   */
+  public synchronized void put(Class claz, String id)
+  {
+    String key = claz.getName() + ":" + id;
+    if (map.remove(key) == null)
+    {
+      stats.size.incrementAndGet();
+    }
+    map.put(key, System.currentTimeMillis() + ttl);
+    stats.accessCounter.incrementAndGet();
+    stats.putCounter.incrementAndGet();
+    Iterator<Map.Entry<String, Long>> it = map.entrySet().iterator();
+    while (map.size() > size && it.hasNext())
+    {
+      it.next();
+      it.remove();
+      stats.size.decrementAndGet();
+      stats.evictionCounter.incrementAndGet();
+    }
+  }
+
+  /**
+   * forget an id (it is saved)
+   *
+   * @param claz
+   * @param id
+   */
+  public synchronized void evict(Class claz, String id)
+  {
+    if (map.remove(claz.getName() + ":" + id) != null)
+    {
+      stats.size.decrementAndGet();
+    }
+  }
+
+  /**
+   * clear
+   */
+  public synchronized void clear()
+  {
+    map.clear();
+    stats.size.set(0);
+  }
+
+  /**
+   * the stats
+   *
+   * @return
+   */
+  public Stats stats()
+  {
+    return stats;
+  }
+}
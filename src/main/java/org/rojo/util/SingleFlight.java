@@ -0,0 +1,74 @@
+/**
+ * single flight
+ */
+package org.rojo.util;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import org.rojo.exceptions.RojoException;
+
+/**
+ * Coalesce concurrent loads of the same key: the first caller runs the loader,
+ * the others wait for its result.
+ *
+ * @author beykery
+ * @param <K>
+ * @param <V>
+ */
+public class SingleFlight<K, V>
+{
+
+  private final ConcurrentHashMap<K, FutureTask<V>> flights = new ConcurrentHashMap<>();
+
+  /**
+   * run the loader unless a load of key is in flight
+   *
+   * @param key
+   * @param loader
+   * @return the result of the load in flight
+   */
+  public V run(K key, Callable<V> loader)
+  {
+    FutureTask<V> task = new FutureTask<>(loader);
+    FutureTask<V> flight = flights.putIfAbsent(key, task);
+    if (flight == null)
+    {
+      flight = task;
+      try
+      {
+        task.run();
+      } finally
+      {
+        flights.remove(key, task);
+      }
+    }
+    try
+    {
+      return flight.get();
+    } catch (ExecutionException e)
+    {
+      Throwable cause = e.getCause();
+      if (cause instanceof RuntimeException)
+      {
+        throw (RuntimeException) cause;
+      }
+      throw new RojoException(cause);
+    } catch (InterruptedException e)
+    {
+      Thread.currentThread().interrupt();
+      throw new RojoException(e);
+    }
+  }
+
+  /**
+   * loads in flight
+   *
+   * @return
+   */
+  public int size()
+  {
+    return flights.size();
+  }
+}
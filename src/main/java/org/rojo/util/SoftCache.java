@@ -5,7 +5,9 @@ package org.rojo.util;
 
 import java.lang.ref.ReferenceQueue;
 import java.lang.ref.SoftReference;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReadWriteLock;
@@ -15,7 +17,7 @@ import java.util.concurrent.locks.ReentrantReadWriteLock;
  *
  * @author beykery
  */
-public class SoftCache implements Cache
+public class SoftCache implements BatchCache
 {
 
   private CacheoutListerner cacheoutListerner;
@@ -133,6 +135,46 @@ public class SoftCache implements Cache
     }
   }
 
+  /**
+   * get entities with one lock
+   *
+   * @param <T>
+   * @param claz
+   * @param ids
+   * @return
+   */
+  @Override
+  public <T> List<T> get(Class<T> claz, List<String> ids)
+  {
+    List<T> r = new ArrayList<>(ids.size());
+    readLock.lock();
+    try
+    {
+      Map<String, SoftObjectReference<Object>> c = cache.get(claz);
+      for (String id : ids)
+      {
+        Object o = null;
+        if (c != null)
+        {
+          SoftReference<Object> sr = c.get(id);
+          o = sr == null ? null : sr.get();
+        }
+        if (o != null)
+        {
+          stats.accessCounter.incrementAndGet();
+        } else
+        {
+          stats.missCounter.incrementAndGet();
+        }
+        r.add((T) o);
+      }
+      return r;
+    } finally
+    {
+      readLock.unlock();
+    }
+  }
+
   /**
    * evict an object
    *
@@ -27,6 +27,12 @@ public class Stats
     return accessCounter.get() - putCounter.get() ;
   }
 
+  public double getHitRatio()
+  {
+    long lookups = getLookups();
+    return lookups == 0 ? 0 : (double) getHits() / lookups;
+  }
+
   public long getPuts()
   {
     return putCounter.get();
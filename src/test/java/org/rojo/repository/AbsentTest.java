@@ -0,0 +1,83 @@
+/**
+ * ids known to be absent
+ */
+package org.rojo.repository;
+
+import java.util.Arrays;
+import org.junit.Test;
+import org.rojo.util.NegativeCache;
+import static org.junit.Assert.*;
+
+/**
+ * The negative cache remembers the misses and forgets the ids saved.
+ *
+ * @author beykery
+ */
+public class AbsentTest extends RedisTest
+{
+
+  private static NegativeCache negative(long ttl)
+  {
+    NegativeCache nc = new NegativeCache(100, ttl);
+    Rojo.setNegativeCache(nc);
+    return nc;
+  }
+
+  /**
+   * the reads of an absent id
+   *
+   * @param rojo
+   * @param id
+   * @return
+   */
+  private static long reads(Rojo rojo, String id)
+  {
+    long before = Rojo.read();
+    assertNull(rojo.get(Player.class, id));
+    assertFalse(rojo.exist(Player.class, id));
+    return Rojo.read() - before;
+  }
+
+  @Test
+  public void missRemembered()
+  {
+    NegativeCache nc = negative(60000);
+    Rojo rojo = new Rojo(je);
+    assertEquals(1, reads(rojo, "1"));//the get,the exist answered by the cache
+    assertEquals(0, reads(rojo, "1"));
+    assertTrue(nc.contains(Player.class, "1"));
+  }
+
+  @Test
+  public void savedVisibleAtOnce()
+  {
+    negative(60000);
+    Rojo rojo = new Rojo(je);
+    reads(rojo, "1");
+    reads(rojo, "2");
+    reads(rojo, "3");
+    assertEquals("1", rojo.saveAndFlush(RojoTest.player("ann", 1, 1)));
+    assertEquals("ann", rojo.get(Player.class, "1").getName());
+    assertTrue(rojo.exist(Player.class, "1"));
+    assertTrue(rojo.saveAll(Arrays.asList(RojoTest.player("bob", 1, 1))).isEmpty());
+    assertEquals("bob", rojo.get(Player.class, "2").getName());
+    rojo.batch().save(RojoTest.player("cid", 1, 1)).commit();
+    assertEquals("cid", rojo.get(Player.class, "3").getName());
+    assertTrue(rojo.exist(Player.class, "3"));
+  }
+
+  @Test
+  public void otherWritersSeenAfterTheTtl() throws Exception
+  {
+    NegativeCache nc = negative(100);
+    Rojo rojo = new Rojo(je);
+    reads(rojo, "1");
+    Rojo.setNegativeCache(null);//another process
+    assertEquals("1", new Rojo(je).saveAndFlush(RojoTest.player("eve", 1, 1)));
+    Rojo.setNegativeCache(nc);
+    assertNull(rojo.get(Player.class, "1"));
+    Thread.sleep(200);
+    assertEquals("eve", rojo.get(Player.class, "1").getName());
+    assertTrue(rojo.exist(Player.class, "1"));
+  }
+}
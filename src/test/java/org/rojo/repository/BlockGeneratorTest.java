@@ -0,0 +1,140 @@
+/**
+ * hi/lo ids
+ */
+package org.rojo.repository;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.junit.Test;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author beykery
+ */
+public class BlockGeneratorTest extends RedisTest
+{
+
+  /**
+   * ids taken by concurrent threads,each on a connection of its own
+   *
+   * @param g
+   * @param pool
+   * @param threads
+   * @param each
+   * @return
+   */
+  private static Set<Long> take(final BlockGenerator g, final JedisPool pool, int threads, final int each) throws Exception
+  {
+    final Set<Long> ids = Collections.newSetFromMap(new ConcurrentHashMap<Long, Boolean>());
+    ExecutorService es = Executors.newFixedThreadPool(threads);
+    try
+    {
+      List<Future<Integer>> fs = new ArrayList<>();
+      for (int t = 0; t < threads; t++)
+      {
+        fs.add(es.submit(new Callable<Integer>()
+        {
+          @Override
+          public Integer call() throws Exception
+          {
+            int duplicates = 0;
+            try (Jedis j = pool.getResource())
+            {
+              for (int i = 0; i < each; i++)
+              {
+                duplicates += ids.add(Long.parseLong(g.id(Player.class, "blk", j))) ? 0 : 1;
+              }
+            }
+            return duplicates;
+          }
+        }));
+      }
+      for (Future<Integer> f : fs)
+      {
+        assertEquals(0, (int) f.get());
+      }
+    } finally
+    {
+      es.shutdown();
+    }
+    return ids;
+  }
+
+  @Test
+  public void blocksOnTheCallersConnection() throws Exception
+  {
+    JedisPool pool = new JedisPool("localhost", port);
+    try
+    {
+      Set<Long> ids = take(new BlockGenerator(10), pool, 8, 500);
+      assertEquals(4000, ids.size());
+      assertEquals(4000, Long.parseLong(je.get("blk:::id")));//no gap
+      for (long i = 1; i <= 4000; i++)
+      {
+        assertTrue(ids.contains(i));
+      }
+    } finally
+    {
+      pool.destroy();
+    }
+  }
+
+  @Test
+  public void blocksPrefetched() throws Exception
+  {
+    JedisPool pool = new JedisPool("localhost", port);
+    try
+    {
+      Set<Long> ids = take(new BlockGenerator(100, 25, pool), pool, 8, 500);
+      assertEquals(4000, ids.size());
+      long counter = Long.parseLong(je.get("blk:::id"));
+      assertTrue(counter <= 4000 + 3 * 100);//the current block,the prefetched one and one prefetch given up
+      for (long id : ids)
+      {
+        assertTrue(id >= 1 && id <= counter);
+      }
+    } finally
+    {
+      pool.destroy();
+    }
+  }
+
+  @Test
+  public void bulkIdsInABlockOfTheirOwn()
+  {
+    BlockGenerator g = new BlockGenerator(10);
+    assertEquals("1", g.id(Player.class, "blk", je));
+    String[] ids = g.ids(Player.class, "blk", je, 25);
+    assertEquals(25, ids.length);
+    for (int i = 0; i < ids.length; i++)
+    {
+      assertEquals(String.valueOf(11 + i), ids[i]);
+    }
+    assertEquals("2", g.id(Player.class, "blk", je));//the current block goes on
+    assertEquals(3, g.ids(Player.class, "blk", je, 3).length);
+  }
+
+  @Test
+  public void registeredWithTheDefaultBlock()
+  {
+    BlockGenerator g = (BlockGenerator) IdGenerator.getGenerator("blockGenerator");
+    assertEquals(Rojo.property("rojo.id.block", 1000, 1), g.getBlockSize());
+    assertEquals(g.getBlockSize() / 4, g.getLowWater());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void blockMustBePositive()
+  {
+    new BlockGenerator(0);
+  }
+}
@@ -0,0 +1,188 @@
+/**
+ * bloom filters of the ids
+ */
+package org.rojo.repository;
+
+import org.junit.Test;
+import org.rojo.annotations.Entity;
+import org.rojo.annotations.Id;
+import org.rojo.annotations.Value;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.Pipeline;
+import redis.embedded.RedisServer;
+import static org.junit.Assert.*;
+
+/**
+ * The filters are used by a repository set as the sole writer.
+ *
+ * @author beykery
+ */
+public class BloomTest extends RedisTest
+{
+
+  @Entity(table = "bsteps", bloom = 10000)
+  public static class Steps
+  {
+
+    @Id(auto = true)
+    String id;
+    @Value
+    String name;
+  }
+
+  @Entity(table = "bpool", bloom = 10000)
+  public static class Pooled
+  {
+
+    @Id(auto = true)
+    String id;
+    @Value
+    String name;
+  }
+
+  /**
+   * n ids in the id set of table (no entity behind)
+   *
+   * @param table
+   * @param n
+   */
+  private void ids(String table, int n)
+  {
+    Pipeline p = je.pipelined();
+    for (int i = 0; i < n; i++)
+    {
+      p.zadd(table + ":002all_ids_key", i, "seeded" + i);
+    }
+    p.sync();
+  }
+
+  /**
+   * the reads of a get
+   *
+   * @param rojo
+   * @param claz
+   * @param id
+   * @return
+   */
+  private static long reads(Rojo rojo, Class<?> claz, String id)
+  {
+    long before = Rojo.read();
+    assertNull(rojo.get(claz, id));
+    return Rojo.read() - before;
+  }
+
+  /**
+   * a Steps saved by another repository
+   *
+   * @param port
+   * @param name
+   * @return
+   */
+  private static String saveElsewhere(int port, String name)
+  {
+    Jedis j = new Jedis("localhost", port);
+    try
+    {
+      Steps s = new Steps();
+      s.name = name;
+      return new Rojo(j).saveAndFlush(s);
+    } finally
+    {
+      j.close();
+    }
+  }
+
+  @Test
+  public void seededStepByStepOnOneConnection()
+  {
+    ids("bsteps", 2500);
+    Rojo rojo = new Rojo(je);
+    rojo.setSoleWriter(true);
+    Steps s = new Steps();
+    s.name = "saved";
+    String id = rojo.saveAndFlush(s);
+    assertEquals(2, reads(rojo, Steps.class, "absent0"));//a scan page and the load
+    int steps = 1;
+    while (reads(rojo, Steps.class, "absent" + steps) > 0)
+    {
+      assertTrue("not seeded after " + steps + " reads", ++steps < 10);
+    }
+    assertTrue(steps > 1);
+    assertEquals("saved", rojo.get(Steps.class, id).name);
+    s = new Steps();
+    s.name = "after";
+    id = rojo.saveAndFlush(s);
+    assertEquals("after", rojo.get(Steps.class, id).name);
+  }
+
+  @Test
+  public void seededInTheBackgroundWithAPool() throws Exception
+  {
+    ids("bpool", 2500);
+    JedisPool pool = new JedisPool("localhost", port);
+    try
+    {
+      Rojo rojo = new Rojo(pool);
+      rojo.setSoleWriter(true);
+      Pooled p = new Pooled();
+      p.name = "saved";
+      String id = rojo.saveAndFlush(p);
+      long end = System.currentTimeMillis() + 5000;
+      int i = 0;
+      while (reads(rojo, Pooled.class, "absent" + i++) > 0)
+      {
+        assertTrue("not seeded", System.currentTimeMillis() < end);
+        Thread.sleep(10);
+      }
+      assertEquals("saved", rojo.get(Pooled.class, id).name);
+    } finally
+    {
+      pool.destroy();
+    }
+  }
+
+  @Test
+  public void otherWritersSeenWithoutSoleWriter()
+  {
+    Rojo rojo = new Rojo(je);
+    assertNull(rojo.get(Steps.class, "1"));
+    String id = saveElsewhere(port, "other");//another writer
+    assertEquals("other", rojo.get(Steps.class, id).name);
+    assertTrue(rojo.exist(Steps.class, id));
+  }
+
+  @Test
+  public void filtersOfTheirOwnRepository() throws Exception
+  {
+    int port2 = freePort();
+    RedisServer server2 = start(port2);
+    Jedis je2 = new Jedis("localhost", port2);
+    try
+    {
+      Rojo one = new Rojo(je);
+      one.setSoleWriter(true);
+      assertNull(one.get(Steps.class, "1"));//an empty filter,seeded
+      assertEquals(0, reads(one, Steps.class, "1"));
+      String id = saveElsewhere(port2, "two");
+      Rojo two = new Rojo(je2);
+      two.setSoleWriter(true);
+      assertEquals("two", two.get(Steps.class, id).name);
+    } finally
+    {
+      je2.close();
+      server2.stop();
+    }
+  }
+
+  @Test
+  public void seededAgainWhenSet()
+  {
+    Rojo rojo = new Rojo(je);
+    rojo.setSoleWriter(true);
+    assertNull(rojo.get(Steps.class, "1"));
+    String id = saveElsewhere(port, "other");
+    rojo.setSoleWriter(true);
+    assertEquals("other", rojo.get(Steps.class, id).name);
+  }
+}
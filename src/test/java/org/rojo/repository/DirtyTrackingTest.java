@@ -0,0 +1,80 @@
+/**
+ * dirty tracking
+ */
+package org.rojo.repository;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * A property changed behind the repository stays as is unless the entity
+ * changed it too.
+ *
+ * @author beykery
+ */
+public class DirtyTrackingTest extends RedisTest
+{
+
+  private String hash(String id)
+  {
+    return "player:" + id + ":001all_propertiesHashMap_key";
+  }
+
+  @Test
+  public void writesOnlyTheChangedProperties()
+  {
+    Rojo.setDirtyTracking(true);
+    Rojo rojo = new Rojo(je);
+    String id = rojo.saveAndFlush(RojoTest.player("ann", 10, 2));
+    Player p = rojo.get(Player.class, id);
+    je.hset(hash(id), "top", "77");
+    je.sadd("player:" + id + ":tg", "c");
+    p.setScore(11);
+    assertTrue(rojo.updateAndFlush(p));
+    Player q = rojo.get(Player.class, id);
+    assertEquals(11, q.getScore());
+    assertEquals(77, q.getTop());
+    assertTrue(q.getTags().contains("c"));
+    assertEquals(11, (long) (double) je.zscore("player:s:003sorted_key", id));
+  }
+
+  @Test
+  public void collectionChangedInPlace()
+  {
+    Rojo.setDirtyTracking(true);
+    Rojo rojo = new Rojo(je);
+    String id = rojo.saveAndFlush(RojoTest.player("bob", 1, 1));
+    Player p = rojo.get(Player.class, id);
+    p.getTags().add("n");
+    p.getProps().put("k", "w");
+    je.hset(hash(id), "s", "5");
+    assertTrue(rojo.updateAndFlush(p));
+    Player q = rojo.get(Player.class, id);
+    assertTrue(q.getTags().contains("n"));
+    assertEquals("w", q.getProps().get("k"));
+    assertEquals(5, q.getScore());
+  }
+
+  @Test
+  public void nothingChangedNothingWritten()
+  {
+    Rojo.setDirtyTracking(true);
+    Rojo rojo = new Rojo(je);
+    String id = rojo.saveAndFlush(RojoTest.player("cid", 1, 1));
+    Player p = rojo.get(Player.class, id);
+    je.hset(hash(id), "s", "5");
+    assertTrue(rojo.updateAndFlush(p));
+    assertEquals("5", je.hget(hash(id), "s"));
+  }
+
+  @Test
+  public void everythingWrittenWithoutTracking()
+  {
+    Rojo rojo = new Rojo(je);
+    String id = rojo.saveAndFlush(RojoTest.player("dan", 1, 1));
+    Player p = rojo.get(Player.class, id);
+    je.hset(hash(id), "top", "77");
+    assertTrue(rojo.updateAndFlush(p));
+    assertEquals(0, rojo.get(Player.class, id).getTop());
+  }
+}
@@ -0,0 +1,158 @@
+/**
+ * hedged reads
+ */
+package org.rojo.repository;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Arrays;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.rojo.exceptions.RepositoryError;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+import redis.embedded.RedisServer;
+import static org.junit.Assert.*;
+
+/**
+ * The master and the replica hold the same entity under other names,so the
+ * name read tells which node answered.
+ *
+ * @author beykery
+ */
+public class HedgeTest extends RedisTest
+{
+
+  private static RedisServer replicaServer;
+  private static int replicaPort;
+  private Jedis rje;
+  private JedisPool master;
+  private JedisPool replica;
+  private String id;
+
+  @BeforeClass
+  public static void startReplica() throws Exception
+  {
+    replicaPort = freePort();
+    replicaServer = start(replicaPort);
+  }
+
+  @AfterClass
+  public static void stopReplica()
+  {
+    replicaServer.stop();
+  }
+
+  @Before
+  public void pools()
+  {
+    rje = new Jedis("localhost", replicaPort);
+    rje.flushAll();
+    master = new JedisPool("localhost", port);
+    replica = new JedisPool("localhost", replicaPort);
+    id = new Rojo(je).saveAndFlush(RojoTest.player("master", 1, 1));
+    assertEquals(id, new Rojo(rje).saveAndFlush(RojoTest.player("replica", 1, 1)));
+  }
+
+  @After
+  public void closePools()
+  {
+    rje.close();
+    master.destroy();
+    replica.destroy();
+  }
+
+  private static RojoReplicas hedged(JedisPool master, JedisPool replica, long min)
+  {
+    return hedged(master, replica, min, 0);
+  }
+
+  private static RojoReplicas hedged(JedisPool master, JedisPool replica, long min, long window)
+  {
+    RojoReplicas replicas = new RojoReplicas(master, Arrays.asList(replica), window);
+    replicas.setHedged(true);
+    replicas.setHedgeMin(min);
+    return replicas;
+  }
+
+  @Test
+  public void answeredReplicaNotHedged()
+  {
+    Rojo rojo = new Rojo(hedged(master, replica, 1000));
+    for (int i = 0; i < 10; i++)
+    {
+      assertEquals("replica", rojo.get(Player.class, id).getName());
+    }
+    Rojo.setScriptRead(true);
+    assertEquals("replica", rojo.get(Player.class, id).getName());
+  }
+
+  @Test
+  public void lateReplicaHedged() throws Exception
+  {
+    Rojo rojo = new Rojo(hedged(master, replica, 100));
+    Thread sleeper = new Thread()
+    {
+      @Override
+      public void run()
+      {
+        try (Socket s = new Socket("localhost", replicaPort))
+        {
+          s.getOutputStream().write("DEBUG SLEEP 2\r\n".getBytes());
+          s.getInputStream().read();
+        } catch (IOException e)
+        {
+          throw new RuntimeException(e);
+        }
+      }
+    };
+    sleeper.start();
+    Thread.sleep(200);//the replica is asleep
+    long start = System.currentTimeMillis();
+    assertEquals("master", rojo.get(Player.class, id).getName());
+    assertTrue(System.currentTimeMillis() - start < 1500);
+    sleeper.join();
+  }
+
+  @Test
+  public void failedReplicaHedgedAtOnce() throws Exception
+  {
+    int dead;
+    try (ServerSocket s = new ServerSocket(0))
+    {
+      dead = s.getLocalPort();
+    }
+    JedisPool down = new JedisPool("localhost", dead);
+    try
+    {
+      Rojo rojo = new Rojo(hedged(master, down, 5000));
+      long start = System.currentTimeMillis();
+      assertEquals("master", rojo.get(Player.class, id).getName());
+      assertTrue(System.currentTimeMillis() - start < 2000);
+      try
+      {
+        new Rojo(new RojoReplicas(master, Arrays.asList(down), 0)).get(Player.class, id);
+        fail("not hedged,read from the dead replica only");
+      } catch (RepositoryError e)
+      {
+      }
+    } finally
+    {
+      down.destroy();
+    }
+  }
+
+  @Test
+  public void freshEntityReadFromTheMaster()
+  {
+    Rojo rojo = new Rojo(hedged(master, replica, 1000, 60000));
+    Player p = rojo.get(Player.class, id);
+    assertEquals("replica", p.getName());
+    rojo.updateAndFlush(p, "score");
+    assertEquals("master", rojo.get(Player.class, id).getName());
+  }
+}
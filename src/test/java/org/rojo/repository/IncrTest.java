@@ -0,0 +1,101 @@
+/**
+ * atomic increments
+ */
+package org.rojo.repository;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+import org.rojo.exceptions.InvalidTypeException;
+import redis.clients.jedis.JedisPool;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author beykery
+ */
+public class IncrTest extends RedisTest
+{
+
+  @Test
+  public void sortedKeyFollows()
+  {
+    Rojo rojo = new Rojo(je);
+    String id = rojo.saveAndFlush(RojoTest.player("ann", 10, 1));
+    assertEquals(Long.valueOf(15), rojo.incr(Player.class, id, "score", 5));
+    assertEquals(15, rojo.get(Player.class, id).getScore());
+    assertEquals(15, (long) (double) je.zscore("player:s:003sorted_key", id));
+    assertNull(rojo.incr(Player.class, "404", "score", 5));
+    assertNull(je.zscore("player:s:003sorted_key", "404"));
+  }
+
+  @Test
+  public void cappedKeyTrimmed()
+  {
+    Rojo rojo = new Rojo(je);
+    String[] ids = new String[5];
+    for (int i = 0; i < ids.length; i++)
+    {
+      ids[i] = rojo.saveAndFlush(new Player("p" + i, 0, 1));
+    }
+    for (int i = 0; i < ids.length; i++)
+    {
+      rojo.incr(Player.class, ids[i], "top", i + 1);
+    }
+    assertEquals(3, (long) je.zcard("player:top:003sorted_key"));
+    assertEquals(ids[4], je.zrevrange("player:top:003sorted_key", 0, 0).iterator().next());
+    assertNull(je.zscore("player:top:003sorted_key", ids[0]));
+  }
+
+  @Test(expected = InvalidTypeException.class)
+  public void indexedRefused()
+  {
+    Rojo rojo = new Rojo(je);
+    String id = rojo.saveAndFlush(RojoTest.player("bob", 1, 1));
+    rojo.incr(Player.class, id, "level", 1);
+  }
+
+  @Test(expected = InvalidTypeException.class)
+  public void floatOnIntegerRefused()
+  {
+    Rojo rojo = new Rojo(je);
+    String id = rojo.saveAndFlush(RojoTest.player("cid", 1, 1));
+    rojo.incr(Player.class, id, "score", 0.5);
+  }
+
+  @Test
+  public void concurrentIncrementsAllCount() throws Exception
+  {
+    JedisPool pool = new JedisPool("localhost", port);
+    try
+    {
+      final Rojo rojo = new Rojo(pool);
+      final String id = rojo.saveAndFlush(RojoTest.player("dan", 0, 1));
+      ExecutorService threads = Executors.newFixedThreadPool(8);
+      for (int t = 0; t < 8; t++)
+      {
+        threads.submit(new Callable<Object>()
+        {
+          @Override
+          public Object call() throws Exception
+          {
+            for (int i = 0; i < 100; i++)
+            {
+              rojo.incr(Player.class, id, "score", 1);
+            }
+            return null;
+          }
+        });
+      }
+      threads.shutdown();
+      assertTrue(threads.awaitTermination(30, TimeUnit.SECONDS));
+      assertEquals(800, rojo.get(Player.class, id).getScore());
+      assertEquals(800, (long) (double) je.zscore("player:s:003sorted_key", id));
+    } finally
+    {
+      pool.destroy();
+    }
+  }
+}
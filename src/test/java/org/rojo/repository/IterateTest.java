@@ -0,0 +1,91 @@
+/**
+ * lazy iterators
+ */
+package org.rojo.repository;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author beykery
+ */
+public class IterateTest extends RedisTest
+{
+
+  /**
+   * n players,the ids of every ten created at the same millisecond
+   *
+   * @param rojo
+   * @param n
+   * @return the ids in create order (ties by id as redis orders them)
+   */
+  private List<String> created(Rojo rojo, int n)
+  {
+    List<String> ids = new ArrayList<>();
+    for (int i = 0; i < n; i++)
+    {
+      ids.add(rojo.saveAndFlush(new Player("p" + i, i, i % 3)));
+    }
+    for (int i = 0; i < n; i++)
+    {
+      je.zadd("player:002all_ids_key", 1000 * (1 + i / 10), ids.get(i));
+    }
+    return new ArrayList<>(je.zrange("player:002all_ids_key", 0, -1));
+  }
+
+  private static List<String> ids(Iterator<Player> it)
+  {
+    List<String> ids = new ArrayList<>();
+    while (it.hasNext())
+    {
+      ids.add(it.next().getId());
+    }
+    return ids;
+  }
+
+  @Test
+  public void datePagesAcrossTies()
+  {
+    Rojo rojo = new Rojo(je);
+    List<String> ids = created(rojo, 25);
+    for (int chunk : new int[]
+    {
+      1, 4, 10, 11, 100
+    })
+    {
+      assertEquals("chunk " + chunk, ids, ids(rojo.iterate(Player.class, null, new Date(5000), chunk)));
+    }
+  }
+
+  @Test
+  public void dateBounds()
+  {
+    Rojo rojo = new Rojo(je);
+    List<String> ids = created(rojo, 25);
+    assertEquals(ids.subList(10, 25), ids(rojo.iterate(Player.class, new Date(2000), new Date(5000), 3)));
+    assertEquals(ids.subList(10, 20), ids(rojo.iterate(Player.class, new Date(1500), new Date(2000), 3)));
+    assertTrue(ids(rojo.iterate(Player.class, new Date(4000), new Date(5000), 3)).isEmpty());
+  }
+
+  @Test
+  public void ranksAndIndexes()
+  {
+    Rojo rojo = new Rojo(je);
+    List<String> ids = created(rojo, 25);
+    assertEquals(ids.subList(5, 20), ids(rojo.iterate(Player.class, 5, 19, 4)));
+    assertEquals(ids.subList(20, 25), ids(rojo.iterate(Player.class, -5, -1, 2)));
+    Set<String> level = new LinkedHashSet<>(ids(rojo.iterateIndex(Player.class, "level", 1, 3)));
+    assertEquals(8, level.size());
+    List<String> best = ids(rojo.iterateRange(Player.class, "score", 0, 4, 2));
+    assertEquals(5, best.size());
+    assertEquals(24, rojo.get(Player.class, best.get(0)).getScore());
+    assertEquals(20, rojo.get(Player.class, best.get(4)).getScore());
+  }
+}
@@ -0,0 +1,75 @@
+/**
+ * element level mutations
+ */
+package org.rojo.repository;
+
+import java.util.Arrays;
+import org.junit.Test;
+import org.rojo.util.LruCache;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author beykery
+ */
+public class MutationTest extends RedisTest
+{
+
+  @Test
+  public void listElements()
+  {
+    Rojo rojo = new Rojo(je);
+    String id = rojo.saveAndFlush(RojoTest.player("ann", 1, 1));
+    Player p = rojo.get(Player.class, id);
+    assertTrue(rojo.append(p, "notes", "z", "x"));
+    rojo.flush();
+    assertEquals(Arrays.asList("x", "y", "x", "z", "x"), p.getNotes());
+    assertEquals(p.getNotes(), rojo.get(Player.class, id).getNotes());
+    assertTrue(rojo.removeElement(p, "notes", "x"));
+    rojo.flush();
+    assertEquals(Arrays.asList("y", "z"), p.getNotes());
+    assertEquals(p.getNotes(), rojo.get(Player.class, id).getNotes());
+  }
+
+  @Test
+  public void mapEntries()
+  {
+    Rojo rojo = new Rojo(je);
+    String id = rojo.saveAndFlush(RojoTest.player("bob", 1, 1));
+    Player p = rojo.get(Player.class, id);
+    assertTrue(rojo.putEntry(p, "props", "a", "1"));
+    assertTrue(rojo.putEntry(p, "props", "k", "w"));
+    rojo.flush();
+    assertEquals(p.getProps(), rojo.get(Player.class, id).getProps());
+    assertTrue(rojo.removeEntry(p, "props", "a", "k"));
+    rojo.flush();
+    assertTrue(p.getProps().isEmpty());
+    assertTrue(rojo.get(Player.class, id).getProps().isEmpty());
+  }
+
+  @Test
+  public void otherElementsUntouched()
+  {
+    Rojo rojo = new Rojo(je);
+    String id = rojo.saveAndFlush(RojoTest.player("cid", 1, 1));
+    Player p = rojo.get(Player.class, id);
+    je.hset("player:" + id + ":p", "other", "o");
+    rojo.putEntry(p, "props", "k", "w");
+    rojo.flush();
+    assertEquals("o", rojo.get(Player.class, id).getProps().get("other"));
+  }
+
+  @Test
+  public void cachedCopyFollows()
+  {
+    Rojo.setCache(new LruCache(100));
+    Rojo.setCacheable(true);
+    Rojo rojo = new Rojo(je);
+    String id = rojo.saveAndFlush(RojoTest.player("dan", 1, 1));
+    Player cached = rojo.get(Player.class, id);
+    assertSame(cached, rojo.get(Player.class, id));
+    rojo.append(cached, "notes", "q");
+    rojo.flush();
+    assertTrue(rojo.get(Player.class, id).getNotes().contains("q"));
+  }
+}
@@ -0,0 +1,157 @@
+/**
+ * multiplexed connection
+ */
+package org.rojo.repository;
+
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import redis.clients.jedis.HostAndPort;
+import redis.clients.jedis.Protocol.Command;
+import redis.clients.jedis.exceptions.JedisConnectionException;
+import redis.clients.jedis.exceptions.JedisDataException;
+import redis.clients.util.SafeEncoder;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author beykery
+ */
+public class MuxTest extends RedisTest
+{
+
+  private Multiplexer mux;
+
+  @Before
+  public void open()
+  {
+    mux = new Multiplexer("localhost", port, 500, null, 0, 0);
+  }
+
+  @After
+  public void close()
+  {
+    mux.close();
+  }
+
+  private static Multiplexer.Batch batch(String... command)
+  {
+    Multiplexer.Batch b = new Multiplexer.Batch();
+    add(b, command);
+    return b;
+  }
+
+  private static void add(Multiplexer.Batch b, String... command)
+  {
+    byte[][] args = new byte[command.length - 1][];
+    for (int i = 1; i < command.length; i++)
+    {
+      args[i - 1] = SafeEncoder.encode(command[i]);
+    }
+    b.add(Command.valueOf(command[0]), args);
+  }
+
+  private Object[] run(Multiplexer.Batch b)
+  {
+    mux.submit(b);
+    return b.await(5000);
+  }
+
+  private long connections()
+  {
+    String info = je.info("stats");
+    int at = info.indexOf("total_connections_received:") + "total_connections_received:".length();
+    return Long.parseLong(info.substring(at, info.indexOf('\r', at)));
+  }
+
+  @Test
+  public void repliesInOrder()
+  {
+    Multiplexer.Batch b = batch("SET", "k", "v");
+    add(b, "GET", "k");
+    add(b, "GET", "none");
+    add(b, "INCR", "k");
+    add(b, "MULTI");
+    add(b, "INCR", "n");
+    add(b, "INCR", "n");
+    add(b, "EXEC");
+    Object[] r = run(b);
+    assertEquals("OK", SafeEncoder.encode((byte[]) r[0]));
+    assertEquals("v", SafeEncoder.encode((byte[]) r[1]));
+    assertNull(r[2]);
+    assertTrue(r[3] instanceof JedisDataException);
+    assertEquals(Long.valueOf(2), ((List<?>) r[7]).get(1));
+  }
+
+  @Test
+  public void idleLinkKept() throws Exception
+  {
+    assertEquals("PONG", SafeEncoder.encode((byte[]) run(batch("PING"))[0]));
+    long before = connections();
+    Thread.sleep(1200);//more than the timeout
+    assertEquals("PONG", SafeEncoder.encode((byte[]) run(batch("PING"))[0]));
+    assertEquals(before, connections());
+  }
+
+  @Test
+  public void lateReplyFailsTheLink() throws Exception
+  {
+    run(batch("PING"));
+    long start = System.currentTimeMillis();
+    Object r = run(batch("DEBUG", "SLEEP", "2"))[0];
+    assertTrue(r instanceof JedisConnectionException);
+    assertTrue(System.currentTimeMillis() - start < 1500);
+    Thread.sleep(2000);//redis awake
+    long before = connections();
+    assertEquals("PONG", SafeEncoder.encode((byte[]) run(batch("PING"))[0]));
+    assertEquals(before + 1, connections());
+  }
+
+  @Test
+  public void threadsShareOneConnection() throws Exception
+  {
+    final RojoMux backend = new RojoMux(new HostAndPort("localhost", port));
+    try
+    {
+      final Rojo rojo = new Rojo(backend);
+      long before = connections();
+      ExecutorService threads = Executors.newFixedThreadPool(16);
+      Future<?>[] done = new Future<?>[16];
+      for (int t = 0; t < done.length; t++)
+      {
+        final int n = t;
+        done[t] = threads.submit(new Callable<Object>()
+        {
+          @Override
+          public Object call() throws Exception
+          {
+            for (int i = 0; i < 50; i++)
+            {
+              String name = "t" + n + "-" + i;
+              String id = rojo.saveAndFlush(RojoTest.player(name, i, 1));
+              assertEquals(name, rojo.get(Player.class, id).getName());
+            }
+            return null;
+          }
+        });
+      }
+      threads.shutdown();
+      assertTrue(threads.awaitTermination(60, TimeUnit.SECONDS));
+      for (Future<?> f : done)
+      {
+        f.get();
+      }
+      assertEquals(800, rojo.allSize(Player.class));
+      assertEquals(before + 1, connections());
+    } finally
+    {
+      backend.close();
+    }
+  }
+}
@@ -0,0 +1,125 @@
+/**
+ * entity of the tests
+ */
+package org.rojo.repository;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import org.rojo.annotations.Entity;
+import org.rojo.annotations.Id;
+import org.rojo.annotations.Index;
+import org.rojo.annotations.Value;
+
+/**
+ *
+ * @author beykery
+ */
+@Entity(table = "player", cache = true)
+public class Player
+{
+
+  @Id(auto = true)
+  private String id;
+  @Value(column = "n", unique = true)
+  private String name;
+  @Value(column = "s", sort = true, bigFirst = true)
+  private int score;
+  @Value(column = "top", sort = true, bigFirst = true, size = 3)
+  private long top;
+  @Value(column = "lv")
+  @Index
+  private int level;
+  @Value(column = "tg")
+  private Set<String> tags;
+  @Value(column = "nt")
+  private List<String> notes;
+  @Value(column = "p")
+  private Map<String, String> props;
+
+  public Player()
+  {
+  }
+
+  public Player(String name, int score, int level)
+  {
+    this.name = name;
+    this.score = score;
+    this.level = level;
+  }
+
+  public String getId()
+  {
+    return id;
+  }
+
+  public String getName()
+  {
+    return name;
+  }
+
+  public void setName(String name)
+  {
+    this.name = name;
+  }
+
+  public int getScore()
+  {
+    return score;
+  }
+
+  public void setScore(int score)
+  {
+    this.score = score;
+  }
+
+  public long getTop()
+  {
+    return top;
+  }
+
+  public void setTop(long top)
+  {
+    this.top = top;
+  }
+
+  public int getLevel()
+  {
+    return level;
+  }
+
+  public void setLevel(int level)
+  {
+    this.level = level;
+  }
+
+  public Set<String> getTags()
+  {
+    return tags;
+  }
+
+  public void setTags(Set<String> tags)
+  {
+    this.tags = tags;
+  }
+
+  public List<String> getNotes()
+  {
+    return notes;
+  }
+
+  public void setNotes(List<String> notes)
+  {
+    this.notes = notes;
+  }
+
+  public Map<String, String> getProps()
+  {
+    return props;
+  }
+
+  public void setProps(Map<String, String> props)
+  {
+    this.props = props;
+  }
+}
@@ -0,0 +1,171 @@
+/**
+ * a repository on a pool
+ */
+package org.rojo.repository;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.rojo.exceptions.RepositoryError;
+import redis.clients.jedis.JedisPool;
+import static org.junit.Assert.*;
+
+/**
+ * Every thread borrows its own connection and gives it back,whatever
+ * happened.
+ *
+ * @author beykery
+ */
+public class PoolTest extends RedisTest
+{
+
+  private JedisPool pool;
+  private Rojo rojo;
+
+  @Before
+  public void open()
+  {
+    pool = new JedisPool("localhost", port);
+    rojo = new Rojo(pool);
+  }
+
+  @After
+  public void close()
+  {
+    pool.destroy();
+  }
+
+  private static Player broken(String name)
+  {
+    Player p = new Player(name, 1, 1);
+    p.setProps(new HashMap<String, String>()
+    {
+      @Override
+      public Set<Map.Entry<String, String>> entrySet()
+      {
+        throw new IllegalStateException("broken");
+      }
+    });
+    return p;
+  }
+
+  @Test
+  public void givenBackAfterFailures()
+  {
+    String id = rojo.saveAndFlush(RojoTest.player("ann", 1, 1));
+    assertEquals(0, pool.getNumActive());
+    je.hset("player:" + id + ":001all_propertiesHashMap_key", "s", "not a number");
+    try
+    {
+      rojo.get(Player.class, id);
+      fail("a bad score");
+    } catch (RepositoryError e)
+    {
+    }
+    assertEquals(0, pool.getNumActive());
+    try
+    {
+      rojo.getPartial(Player.class, id, "none");
+      fail("no such property");
+    } catch (RuntimeException e)
+    {
+    }
+    assertEquals(0, pool.getNumActive());
+    assertNull(rojo.saveAndFlush(broken("bob")));
+    assertEquals(0, pool.getNumActive());
+    try
+    {
+      rojo.batch().save(RojoTest.player("cid", 1, 1)).save(broken("dan")).commit();
+      fail("a broken map");
+    } catch (RepositoryError e)
+    {
+    }
+    assertEquals(0, pool.getNumActive());
+    String fay = rojo.saveAndFlush(RojoTest.player("fay", 1, 1));
+    assertEquals("fay", rojo.get(Player.class, fay).getName());
+    assertEquals(0, pool.getNumActive());
+  }
+
+  @Test
+  public void pendingWritesKeepTheirConnection() throws Exception
+  {
+    final String id = rojo.saveAndFlush(RojoTest.player("eve", 1, 1));
+    final CountDownLatch deleted = new CountDownLatch(1);
+    final CountDownLatch flushed = new CountDownLatch(1);
+    ExecutorService other = Executors.newSingleThreadExecutor();
+    try
+    {
+      Future<?> f = other.submit(new Callable<Object>()
+      {
+        @Override
+        public Object call() throws Exception
+        {
+          rojo.delete(rojo.get(Player.class, id));
+          deleted.countDown();
+          assertTrue(flushed.await(5, TimeUnit.SECONDS));
+          rojo.flush();
+          return null;
+        }
+      });
+      assertTrue(deleted.await(5, TimeUnit.SECONDS));
+      assertEquals(1, pool.getNumActive());//held until its flush
+      rojo.flush();//not the pipeline of the other thread
+      assertTrue(rojo.exist(Player.class, id));
+      flushed.countDown();
+      f.get();
+      assertFalse(rojo.exist(Player.class, id));
+      assertEquals(0, pool.getNumActive());
+    } finally
+    {
+      other.shutdownNow();
+    }
+  }
+
+  @Test
+  public void threadsApart() throws Exception
+  {
+    ExecutorService threads = Executors.newFixedThreadPool(8);
+    Future<?>[] done = new Future<?>[8];
+    for (int t = 0; t < done.length; t++)
+    {
+      final int n = t;
+      done[t] = threads.submit(new Callable<Object>()
+      {
+        @Override
+        public Object call() throws Exception
+        {
+          for (int i = 0; i < 100; i++)
+          {
+            String name = "t" + n + "-" + i;
+            String id = rojo.saveAndFlush(RojoTest.player(name, i, n));
+            Player p = rojo.get(Player.class, id);
+            assertEquals(name, p.getName());
+            p.setScore(i + 1);
+            rojo.updateAndFlush(p, "score");
+            Object score = rojo.get((Class) Player.class, id, "score");//a property
+            assertEquals(i + 1, score);
+          }
+          return null;
+        }
+      });
+    }
+    threads.shutdown();
+    assertTrue(threads.awaitTermination(60, TimeUnit.SECONDS));
+    for (Future<?> f : done)
+    {
+      f.get();
+    }
+    assertEquals(800, rojo.allSize(Player.class));
+    assertEquals(0, pool.getNumActive());
+    assertTrue(pool.getNumIdle() <= 8);
+  }
+}
@@ -0,0 +1,110 @@
+/**
+ * redis for the tests
+ */
+package org.rojo.repository;
+
+import java.net.ServerSocket;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import redis.clients.jedis.Jedis;
+import redis.embedded.RedisServer;
+
+/**
+ * An embedded redis per test class (flushed and the repository settings
+ * reset before every test).
+ *
+ * @author beykery
+ */
+public abstract class RedisTest
+{
+
+  protected static RedisServer server;
+  protected static int port;
+  protected Jedis je;
+
+  @BeforeClass
+  public static void startRedis() throws Exception
+  {
+    port = freePort();
+    server = start(port);
+  }
+
+  @AfterClass
+  public static void stopRedis()
+  {
+    if (server != null)
+    {
+      server.stop();
+      server = null;
+    }
+  }
+
+  @Before
+  public void connect()
+  {
+    je = new Jedis("localhost", port);
+    je.flushAll();
+    defaults();
+  }
+
+  @After
+  public void disconnect()
+  {
+    je.close();
+  }
+
+  /**
+   * calls of a command
+   *
+   * @param command
+   * @return
+   */
+  protected long calls(String command)
+  {
+    for (String line : je.info("commandstats").split("\r\n"))
+    {
+      if (line.startsWith("cmdstat_" + command + ":calls="))
+      {
+        return Long.parseLong(line.substring(line.indexOf('=') + 1, line.indexOf(',')));
+      }
+    }
+    return 0;
+  }
+
+  /**
+   * a redis on port (nothing persisted)
+   *
+   * @param port
+   * @return
+   */
+  static RedisServer start(int port)
+  {
+    RedisServer s = RedisServer.builder().port(port).setting("bind 127.0.0.1").setting("save \"\"").setting("appendonly no").build();
+    s.start();
+    return s;
+  }
+
+  static int freePort() throws Exception
+  {
+    try (ServerSocket s = new ServerSocket(0))
+    {
+      return s.getLocalPort();
+    }
+  }
+
+  /**
+   * the default settings of the repository
+   */
+  static void defaults()
+  {
+    Rojo.setCacheable(false);
+    Rojo.setCache(null);
+    Rojo.setNegativeCache(null);
+    Rojo.setScriptRead(false);
+    Rojo.setScriptSave(false);
+    Rojo.setDirtyTracking(false);
+    Rojo.setTrimSlack(0);
+  }
+}
@@ -0,0 +1,110 @@
+/**
+ * reads from replicas
+ */
+package org.rojo.repository;
+
+import java.util.Arrays;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+import redis.embedded.RedisServer;
+import static org.junit.Assert.*;
+
+/**
+ * The replica is a redis of its own (no replication),so where a read went
+ * shows in its result.
+ *
+ * @author beykery
+ */
+public class ReplicaTest extends RedisTest
+{
+
+  private static RedisServer replicaServer;
+  private static int replicaPort;
+  private Jedis rje;
+  private JedisPool master;
+  private JedisPool replica;
+
+  @BeforeClass
+  public static void startReplica() throws Exception
+  {
+    replicaPort = freePort();
+    replicaServer = start(replicaPort);
+  }
+
+  @AfterClass
+  public static void stopReplica()
+  {
+    replicaServer.stop();
+  }
+
+  @Before
+  public void pools()
+  {
+    rje = new Jedis("localhost", replicaPort);
+    rje.flushAll();
+    master = new JedisPool("localhost", port);
+    replica = new JedisPool("localhost", replicaPort);
+  }
+
+  @After
+  public void closePools()
+  {
+    rje.close();
+    master.destroy();
+    replica.destroy();
+  }
+
+  @Test
+  public void writerReadsItsWritesInTheWindow()
+  {
+    Rojo rojo = new Rojo(new RojoReplicas(master, Arrays.asList(replica), 60000));
+    String id = rojo.saveAndFlush(RojoTest.player("ann", 1, 1));
+    assertEquals("ann", rojo.get(Player.class, id).getName());
+    assertNull(new Rojo(rje).get(Player.class, id));
+  }
+
+  @Test
+  public void readsFromTheReplicaAfterTheWindow()
+  {
+    Rojo rojo = new Rojo(new RojoReplicas(master, Arrays.asList(replica), 0));
+    String id = rojo.saveAndFlush(RojoTest.player("bob", 1, 1));
+    assertNull(rojo.get(Player.class, id));
+    assertEquals("bob", new Rojo(je).get(Player.class, id).getName());
+  }
+
+  @Test
+  public void replicaReadsBorrowNoMasterConnection()
+  {
+    String id = new Rojo(rje).saveAndFlush(RojoTest.player("cid", 1, 1));
+    Rojo rojo = new Rojo(new RojoReplicas(master, Arrays.asList(replica), 60000));
+    assertEquals("cid", rojo.get(Player.class, id).getName());
+    assertEquals(1, rojo.getAll(Player.class, Arrays.asList(id)).size());
+    assertEquals(1, rojo.allSize(Player.class));
+    assertEquals(0, master.getNumActive() + master.getNumIdle());
+  }
+
+  @Test
+  public void roundRobin()
+  {
+    JedisPool second = new JedisPool("localhost", port);//the master as a second replica
+    try
+    {
+      String id = new Rojo(rje).saveAndFlush(RojoTest.player("dan", 1, 1));
+      Rojo rojo = new Rojo(new RojoReplicas(master, Arrays.asList(replica, second), 0));
+      int found = 0;
+      for (int i = 0; i < 10; i++)
+      {
+        found += rojo.get(Player.class, id) == null ? 0 : 1;
+      }
+      assertEquals(5, found);
+    } finally
+    {
+      second.destroy();
+    }
+  }
+}
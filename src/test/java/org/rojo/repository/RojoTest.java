@@ -0,0 +1,147 @@
+/**
+ * reads and writes of entities
+ */
+package org.rojo.repository;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author beykery
+ */
+public class RojoTest extends RedisTest
+{
+
+  static Player player(String name, int score, int level)
+  {
+    Player p = new Player(name, score, level);
+    p.setTags(new HashSet<>(Arrays.asList("a", "b")));
+    p.setNotes(new ArrayList<>(Arrays.asList("x", "y", "x")));
+    Map<String, String> props = new HashMap<>();
+    props.put("k", "v");
+    p.setProps(props);
+    return p;
+  }
+
+  @Test
+  public void saveAndGet()
+  {
+    Rojo rojo = new Rojo(je);
+    String id = rojo.saveAndFlush(player("ann", 10, 2));
+    assertNotNull(id);
+    Player p = rojo.get(Player.class, id);
+    assertEquals(id, p.getId());
+    assertEquals("ann", p.getName());
+    assertEquals(10, p.getScore());
+    assertEquals(2, p.getLevel());
+    assertEquals(new HashSet<>(Arrays.asList("a", "b")), p.getTags());
+    assertEquals(Arrays.asList("x", "y", "x"), p.getNotes());
+    assertEquals("v", p.getProps().get("k"));
+    assertTrue(rojo.exist(Player.class, id));
+  }
+
+  @Test
+  public void absent()
+  {
+    Rojo rojo = new Rojo(je);
+    assertNull(rojo.get(Player.class, "404"));
+    assertFalse(rojo.exist(Player.class, "404"));
+    String id = rojo.saveAndFlush(player("bob", 1, 1));
+    rojo.deleteAndFlush(rojo.get(Player.class, id));
+    assertNull(rojo.get(Player.class, id));
+    assertFalse(rojo.exist(Player.class, id));
+  }
+
+  @Test
+  public void getAllKeepsTheOrder()
+  {
+    Rojo rojo = new Rojo(je);
+    String a = rojo.saveAndFlush(player("a", 1, 1));
+    String b = rojo.saveAndFlush(player("b", 2, 1));
+    List<Player> ps = rojo.getAll(Player.class, Arrays.asList(b, "404", a, b));
+    assertEquals(4, ps.size());
+    assertEquals("b", ps.get(0).getName());
+    assertNull(ps.get(1));
+    assertEquals("a", ps.get(2).getName());
+    assertEquals("b", ps.get(3).getName());
+  }
+
+  @Test
+  public void getAllInSeveralBatches()
+  {
+    Rojo rojo = new Rojo(je);
+    List<Player> saved = new ArrayList<>();
+    for (int i = 0; i < 1200; i++)
+    {
+      saved.add(new Player("p" + i, i, i % 7));
+    }
+    rojo.saveAll(saved);
+    List<String> ids = new ArrayList<>();
+    for (Player p : saved)
+    {
+      ids.add(p.getId());
+    }
+    List<Player> ps = rojo.getAll(Player.class, ids);
+    for (int i = 0; i < ids.size(); i++)
+    {
+      assertEquals("p" + i, ps.get(i).getName());
+      assertEquals(i, ps.get(i).getScore());
+    }
+  }
+
+  @Test
+  public void partial()
+  {
+    Rojo rojo = new Rojo(je);
+    String id = rojo.saveAndFlush(player("cid", 7, 3));
+    Player p = rojo.getPartial(Player.class, id, "score", "tags");
+    assertEquals(7, p.getScore());
+    assertEquals(new HashSet<>(Arrays.asList("a", "b")), p.getTags());
+    assertNull(p.getName());
+    assertEquals(0, p.getLevel());
+    assertNull(rojo.getPartial(Player.class, "404", "score"));
+  }
+
+  @Test
+  public void uniqueAndIndex()
+  {
+    Rojo rojo = new Rojo(je);
+    String id = rojo.saveAndFlush(player("dan", 5, 4));
+    rojo.saveAndFlush(player("eve", 6, 4));
+    assertEquals(id, rojo.unique(Player.class, "dan").getId());
+    assertEquals(2, rojo.index(Player.class, "level", 4).size());
+    assertEquals(2, rojo.indexSize(Player.class, "level", 4));
+  }
+
+  @Test
+  public void badSizesIgnored()
+  {
+    try
+    {
+      for (String bad : new String[]
+      {
+        "0", "-3", "abc", ""
+      })
+      {
+        System.setProperty("rojo.test.size", bad);
+        assertEquals(500, Rojo.property("rojo.test.size", 500, 1));
+      }
+      System.setProperty("rojo.test.size", "7");
+      assertEquals(7, Rojo.property("rojo.test.size", 500, 1));
+      System.setProperty("rojo.test.size", "0");
+      assertEquals(0, Rojo.property("rojo.test.size", 2, 0));
+      System.clearProperty("rojo.test.size");
+      assertEquals(500, Rojo.property("rojo.test.size", 500, 1));
+    } finally
+    {
+      System.clearProperty("rojo.test.size");
+    }
+  }
+}
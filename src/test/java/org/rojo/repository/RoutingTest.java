@@ -0,0 +1,277 @@
+/**
+ * routing of the keys
+ */
+package org.rojo.repository;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.apache.commons.pool2.impl.GenericObjectPoolConfig;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.rojo.exceptions.RojoException;
+import redis.clients.jedis.HostAndPort;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.exceptions.JedisAskDataException;
+import redis.clients.jedis.exceptions.JedisMovedDataException;
+import redis.clients.util.JedisClusterCRC16;
+import redis.embedded.RedisServer;
+import static org.junit.Assert.*;
+
+/**
+ * Two shards (the first one global) on embedded redis,the ring and the
+ * redirections without a cluster (no cluster in the embedded redis,the
+ * cluster shares the entity keys of the shards).
+ *
+ * @author beykery
+ */
+public class RoutingTest extends RedisTest
+{
+
+  private static RedisServer server2;
+  private static int port2;
+  private Jedis je2;
+
+  /**
+   * one node,counting the route reloads
+   */
+  private static class OneNode implements Router
+  {
+
+    final JedisPool pool;
+    int refreshes;
+
+    OneNode(JedisPool pool)
+    {
+      this.pool = pool;
+    }
+
+    @Override
+    public RedisFacade open()
+    {
+      return new RoutedFacade(this);
+    }
+
+    @Override
+    public JedisPool node(String key)
+    {
+      return pool;
+    }
+
+    @Override
+    public Collection<JedisPool> nodes()
+    {
+      return Collections.singletonList(pool);
+    }
+
+    @Override
+    public void refresh()
+    {
+      refreshes++;
+    }
+  }
+
+  @BeforeClass
+  public static void startSecond() throws Exception
+  {
+    port2 = freePort();
+    server2 = start(port2);
+  }
+
+  @AfterClass
+  public static void stopSecond()
+  {
+    server2.stop();
+  }
+
+  @Before
+  public void connectSecond()
+  {
+    je2 = new Jedis("localhost", port2);
+    je2.flushAll();
+  }
+
+  @After
+  public void disconnectSecond()
+  {
+    je2.close();
+  }
+
+  /**
+   * the keys of the entities on a node by their tag
+   *
+   * @param j
+   * @return
+   */
+  private static Map<String, List<String>> tagged(Jedis j)
+  {
+    Map<String, List<String>> keys = new HashMap<>();
+    for (String key : j.keys("{*"))
+    {
+      String tag = key.substring(0, key.indexOf('}') + 1);
+      if (!keys.containsKey(tag))
+      {
+        keys.put(tag, new ArrayList<String>());
+      }
+      keys.get(tag).add(key);
+    }
+    return keys;
+  }
+
+  /**
+   * the node of key by its address
+   *
+   * @param shards
+   * @param nodes
+   * @param key
+   * @return
+   */
+  private static HostAndPort address(RojoShards shards, List<HostAndPort> nodes, String key)
+  {
+    return nodes.get(new ArrayList<>(shards.nodes()).indexOf(shards.node(key)));
+  }
+
+  @Test
+  public void keysOfAnEntityTogether()
+  {
+    RojoShards shards = new RojoShards(Arrays.asList(new HostAndPort("localhost", port), new HostAndPort("localhost", port2)));
+    try
+    {
+      Rojo rojo = new Rojo(shards);
+      List<String> ids = new ArrayList<>();
+      for (int i = 0; i < 40; i++)
+      {
+        ids.add(rojo.saveAndFlush(RojoTest.player("p" + i, i, 1)));
+      }
+      Map<String, List<String>> one = tagged(je);
+      Map<String, List<String>> two = tagged(je2);
+      assertFalse(one.isEmpty());
+      assertFalse(two.isEmpty());
+      assertEquals(40, one.size() + two.size());
+      for (String id : ids)
+      {
+        String tag = "{player:" + id + "}";
+        assertTrue(one.containsKey(tag) != two.containsKey(tag));//on one node only
+        List<String> keys = one.containsKey(tag) ? one.get(tag) : two.get(tag);
+        assertTrue(keys.size() > 1);
+        for (String key : keys)
+        {
+          assertEquals(JedisClusterCRC16.getSlot(tag), JedisClusterCRC16.getSlot(key));//one cluster slot
+        }
+      }
+      assertTrue(je2.keys("player*").isEmpty());//the keys of the table on the global node
+      assertTrue(je.exists("player:002all_ids_key"));
+      assertEquals(40, rojo.allSize(Player.class));
+      for (int i = 0; i < ids.size(); i++)
+      {
+        assertEquals("p" + i, rojo.get(Player.class, ids.get(i)).getName());
+      }
+    } finally
+    {
+      shards.close();
+    }
+  }
+
+  @Test
+  public void ringStable()
+  {
+    List<HostAndPort> nodes = new ArrayList<>();
+    for (int i = 0; i < 4; i++)
+    {
+      nodes.add(new HostAndPort("10.0.0." + i, 6379));//never connected
+    }
+    List<HostAndPort> three = nodes.subList(0, 3);
+    List<HostAndPort> shuffled = Arrays.asList(nodes.get(2), nodes.get(0), nodes.get(1));
+    RojoShards a = new RojoShards(three);
+    RojoShards b = new RojoShards(shuffled, 1, new GenericObjectPoolConfig(), 2000);
+    RojoShards c = new RojoShards(nodes);
+    try
+    {
+      int moved = 0;
+      for (int i = 0; i < 10000; i++)
+      {
+        String key = "{player:" + i + "}:001all_propertiesHashMap_key";
+        HostAndPort on = address(a, three, key);
+        assertEquals(on, address(a, three, "{player:" + i + "}:tags"));
+        assertEquals(on, address(b, shuffled, key));//the order of the nodes does not matter
+        HostAndPort now = address(c, nodes, key);
+        if (!now.equals(on))
+        {
+          assertEquals(nodes.get(3), now);//only to the node added
+          moved++;
+        }
+      }
+      assertTrue("moved " + moved, moved > 1000 && moved < 4000);//about 1/4
+      assertSame(a.getGlobal(), a.node("player:002all_ids_key"));
+      assertSame(a.getGlobal(), a.node("player:name:ann:004unique_key"));
+      assertSame(a.getGlobal(), a.node("player:::id"));
+      assertEquals(nodes.get(0), address(b, shuffled, "player:002all_ids_key"));
+    } finally
+    {
+      a.close();
+      b.close();
+      c.close();
+    }
+  }
+
+  @Test
+  public void clusterNeedsTheSlotMap()
+  {
+    try
+    {
+      new RojoCluster(Collections.singleton(new HostAndPort("localhost", port)));//no cluster mode
+      fail("no slot map");
+    } catch (RojoException e)
+    {
+    }
+  }
+
+  @Test
+  public void redirectionReloadsTheRoutes()
+  {
+    JedisPool pool = new JedisPool("localhost", port);
+    OneNode router = new OneNode(pool);
+    RoutedFacade facade = new RoutedFacade(router);
+    try
+    {
+      facade.pipe("{player:1}").set("{player:1}:name", "ann");
+      facade.sync();
+      assertEquals(0, router.refreshes);
+      facade.pipe("{player:1}").eval("return redis.error_reply('MOVED 9189 localhost:" + port2 + "')");
+      try
+      {
+        facade.sync();
+        fail("MOVED");
+      } catch (JedisMovedDataException e)
+      {
+      }
+      assertEquals(1, router.refreshes);
+      facade.reset();
+      assertEquals(1, router.refreshes);//reloaded once
+      facade.pipe("{player:1}").eval("return redis.error_reply('ASK 9189 localhost:" + port2 + "')");
+      try
+      {
+        facade.sync();
+        fail("ASK");
+      } catch (JedisAskDataException e)
+      {
+      }
+      assertEquals(2, router.refreshes);
+      facade.reset();
+      facade.reset();//another failure,the routes may be stale
+      assertEquals(3, router.refreshes);
+    } finally
+    {
+      facade.close();
+      pool.destroy();
+    }
+  }
+}
@@ -0,0 +1,90 @@
+/**
+ * bulk saves
+ */
+package org.rojo.repository;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author beykery
+ */
+public class SaveAllTest extends RedisTest
+{
+
+  private static List<Player> players(String... names)
+  {
+    List<Player> ps = new ArrayList<>();
+    for (String name : names)
+    {
+      ps.add(new Player(name, 1, 1));
+    }
+    return ps;
+  }
+
+  private static Set<Object> identities(List<?> entities)
+  {
+    Set<Object> s = Collections.newSetFromMap(new IdentityHashMap<Object, Boolean>());
+    s.addAll(entities);
+    return s;
+  }
+
+  @Test
+  public void takenAndDuplicateUniquesRejected()
+  {
+    Rojo rojo = new Rojo(je);
+    String taken = rojo.saveAndFlush(new Player("taken", 1, 1));
+    List<Player> ps = players("a", "b", "b", "c", "taken", "d", "a", "e", null, "f");
+    long incrs = calls("incrby");
+    List<Object> rejected = rojo.saveAll(ps, 3);
+    assertEquals(identities(Arrays.asList(ps.get(2), ps.get(4), ps.get(6), ps.get(8))), identities(rejected));
+    assertEquals(4, calls("incrby") - incrs);//one block of ids per chunk
+    assertEquals(7, rojo.allSize(Player.class));
+    for (int i : new int[]
+    {
+      0, 1, 3, 5, 7, 9
+    })
+    {
+      Player p = ps.get(i);
+      assertEquals(p.getName(), rojo.get(Player.class, p.getId()).getName());
+      assertEquals(p.getId(), rojo.unique(Player.class, p.getName()).getId());
+    }
+    assertEquals(taken, rojo.unique(Player.class, "taken").getId());
+    assertEquals(ps.get(0).getId(), rojo.unique(Player.class, "a").getId());
+    assertEquals(ps.get(1).getId(), rojo.unique(Player.class, "b").getId());
+  }
+
+  @Test
+  public void idsUniqueAcrossChunks()
+  {
+    Rojo rojo = new Rojo(je);
+    List<Player> ps = new ArrayList<>();
+    for (int i = 0; i < 25; i++)
+    {
+      ps.add(new Player("p" + i, i, 1));
+    }
+    assertTrue(rojo.saveAll(ps, 10).isEmpty());
+    Set<String> ids = new HashSet<>();
+    for (Player p : ps)
+    {
+      assertTrue(ids.add(p.getId()));
+    }
+    assertEquals(25, rojo.allSize(Player.class));
+    assertTrue(rojo.saveAll(players("x", "y")).isEmpty());//rojo.save.chunk
+    assertEquals(27, rojo.allSize(Player.class));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void chunkMustBePositive()
+  {
+    new Rojo(je).saveAll(players("a"), 0);
+  }
+}
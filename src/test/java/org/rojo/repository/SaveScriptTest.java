@@ -0,0 +1,92 @@
+/**
+ * lua save script
+ */
+package org.rojo.repository;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author beykery
+ */
+public class SaveScriptTest extends RedisTest
+{
+
+  /**
+   * the keys of a player without their prefix
+   *
+   * @param id
+   * @return
+   */
+  private Set<String> keys(String id)
+  {
+    Set<String> ks = new TreeSet<>();
+    for (String k : je.keys("*"))
+    {
+      if (k.startsWith("player:" + id + ":"))
+      {
+        ks.add(k.substring(k.indexOf(':', 7)) + " " + je.type(k));
+      }
+    }
+    return ks;
+  }
+
+  @Test
+  public void sameLayoutAsThePipelinedSave()
+  {
+    Rojo rojo = new Rojo(je);
+    String plain = rojo.saveAndFlush(RojoTest.player("ann", 10, 2));
+    Rojo.setScriptSave(true);
+    String script = rojo.saveAndFlush(RojoTest.player("bob", 10, 2));
+    assertNotNull(script);
+    assertEquals(keys(plain), keys(script));
+    Player p = rojo.get(Player.class, script);
+    assertEquals("bob", p.getName());
+    assertEquals(Arrays.asList("x", "y", "x"), p.getNotes());
+    assertEquals("v", p.getProps().get("k"));
+    assertEquals(script, rojo.unique(Player.class, "bob").getId());
+    assertEquals(2, rojo.indexSize(Player.class, "level", 2));
+    assertEquals(2, rojo.allSize(Player.class));
+  }
+
+  @Test
+  public void uniqueTakenWritesNothing()
+  {
+    Rojo.setScriptSave(true);
+    Rojo rojo = new Rojo(je);
+    String id = rojo.saveAndFlush(RojoTest.player("ann", 10, 2));
+    Set<String> before = je.keys("*");
+    assertNull(rojo.saveAndFlush(RojoTest.player("ann", 20, 3)));
+    Set<String> after = je.keys("*");
+    after.remove("player:::id");
+    before.remove("player:::id");
+    assertEquals(before, after);
+    assertEquals(10, rojo.get(Player.class, id).getScore());
+    assertEquals(1, rojo.allSize(Player.class));
+  }
+
+  @Test
+  public void saveAllRejectsTakenUniques()
+  {
+    Rojo rojo = new Rojo(je);
+    rojo.saveAndFlush(new Player("p1", 1, 1));
+    List<Player> ps = new ArrayList<>();
+    for (int i = 0; i < 5; i++)
+    {
+      ps.add(new Player("p" + i, i, 1));
+    }
+    ps.add(new Player("p3", 9, 1));
+    List<Object> rejected = rojo.saveAll(ps);
+    assertEquals(2, rejected.size());
+    assertSame(ps.get(1), rejected.get(0));
+    assertSame(ps.get(5), rejected.get(1));
+    assertEquals(5, rojo.allSize(Player.class));
+    assertEquals(3, rojo.unique(Player.class, "p3").getScore());
+  }
+}
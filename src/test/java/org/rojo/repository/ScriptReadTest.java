@@ -0,0 +1,69 @@
+/**
+ * lua read path
+ */
+package org.rojo.repository;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author beykery
+ */
+public class ScriptReadTest extends RedisTest
+{
+
+  @Test
+  public void sameEntityAsTheFieldRead()
+  {
+    Rojo rojo = new Rojo(je);
+    String id = rojo.saveAndFlush(RojoTest.player("ann", 10, 2));
+    Player byFields = rojo.get(Player.class, id);
+    Rojo.setScriptRead(true);
+    Player byScript = rojo.get(Player.class, id);
+    assertEquals(byFields.getName(), byScript.getName());
+    assertEquals(byFields.getScore(), byScript.getScore());
+    assertEquals(byFields.getLevel(), byScript.getLevel());
+    assertEquals(byFields.getTags(), byScript.getTags());
+    assertEquals(byFields.getNotes(), byScript.getNotes());
+    assertEquals(byFields.getProps(), byScript.getProps());
+    assertNull(rojo.get(Player.class, "404"));
+  }
+
+  @Test
+  public void scriptFlushedOnGet()
+  {
+    Rojo rojo = new Rojo(je);
+    String id = rojo.saveAndFlush(RojoTest.player("bob", 3, 1));
+    Rojo.setScriptRead(true);
+    je.scriptFlush();
+    assertEquals("bob", rojo.get(Player.class, id).getName());
+  }
+
+  @Test
+  public void scriptLoadedOncePerBatch()
+  {
+    Rojo rojo = new Rojo(je);
+    List<String> ids = new ArrayList<>();
+    for (int i = 0; i < 10; i++)
+    {
+      ids.add(rojo.saveAndFlush(new Player("p" + i, i, 1)));
+    }
+    ids.add("404");
+    Rojo.setScriptRead(true);
+    je.scriptFlush();
+    long loads = calls("script");
+    long evals = calls("eval") + calls("evalsha");
+    List<Player> ps = rojo.getAll(Player.class, ids);
+    for (int i = 0; i < 10; i++)
+    {
+      assertEquals("p" + i, ps.get(i).getName());
+    }
+    assertNull(ps.get(10));
+    assertEquals(1, calls("script") - loads);
+    assertEquals(22, calls("eval") + calls("evalsha") - evals);//redis counts an EVALSHA it replicates as EVAL under eval
+    assertTrue(je.scriptExists(new String(Script.READ.sha)));
+  }
+}
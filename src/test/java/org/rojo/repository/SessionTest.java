@@ -0,0 +1,195 @@
+/**
+ * units of work
+ */
+package org.rojo.repository;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import org.junit.Test;
+import org.rojo.exceptions.RepositoryError;
+import org.rojo.util.LruCache;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author beykery
+ */
+public class SessionTest extends RedisTest
+{
+
+  private void commit(boolean transactional)
+  {
+    Rojo rojo = new Rojo(je);
+    Player b = rojo.get(Player.class, rojo.saveAndFlush(new Player("b", 1, 1)));
+    Player c = rojo.get(Player.class, rojo.saveAndFlush(new Player("c", 1, 1)));
+    Player a = new Player("a", 1, 1);
+    b.setScore(7);
+    List<Object> rejected = rojo.batch().save(a).update(b, "score").delete(c).commit(transactional);
+    assertTrue(rejected.isEmpty());
+    assertEquals("a", rojo.get(Player.class, a.getId()).getName());
+    assertEquals(7, rojo.get(Player.class, b.getId()).getScore());
+    assertNull(rojo.get(Player.class, c.getId()));
+    assertNull(rojo.unique(Player.class, "c"));
+    assertEquals(2, rojo.allSize(Player.class));
+  }
+
+  @Test
+  public void commitPipelined()
+  {
+    commit(false);
+  }
+
+  @Test
+  public void commitTransactional()
+  {
+    commit(true);
+  }
+
+  @Test
+  public void takenUniqueRejected()
+  {
+    Rojo rojo = new Rojo(je);
+    String taken = rojo.saveAndFlush(new Player("taken", 1, 1));
+    Player dup = new Player("taken", 2, 1);
+    Player ok = new Player("ok", 1, 1);
+    List<Object> rejected = rojo.batch().save(dup).save(ok).commit(true);
+    assertEquals(1, rejected.size());
+    assertSame(dup, rejected.get(0));
+    assertEquals(taken, rojo.unique(Player.class, "taken").getId());
+    assertEquals("ok", rojo.get(Player.class, ok.getId()).getName());
+  }
+
+  private void failingOp(boolean transactional)
+  {
+    Rojo.setCache(new LruCache(100));
+    Rojo.setCacheable(true);
+    Rojo rojo = new Rojo(je);
+    String cid = rojo.saveAndFlush(new Player("c", 1, 1));
+    Player c = rojo.get(Player.class, cid);
+    Player fresh = new Player("fresh", 1, 1);
+    RojoSession session = rojo.batch().save(fresh).delete(c).update(new Player("no id", 1, 1), "score");
+    try
+    {
+      session.commit(transactional);
+      fail("an update without id");
+    } catch (RepositoryError e)
+    {
+    }
+    assertNull(fresh.getId());
+    assertFalse(je.exists("player:n:fresh:004unique_key"));
+    assertNull(rojo.unique(Player.class, "fresh"));
+    assertSame(c, rojo.get(Player.class, cid));//neither deleted nor evicted
+    assertTrue(je.exists("player:" + cid + ":001all_propertiesHashMap_key"));
+    assertEquals(1, rojo.allSize(Player.class));
+    assertNotNull(rojo.saveAndFlush(fresh));//the unique value is free again
+    assertEquals(fresh.getId(), rojo.unique(Player.class, "fresh").getId());
+  }
+
+  @Test
+  public void failingOpPipelined()
+  {
+    failingOp(false);
+  }
+
+  @Test
+  public void failingOpTransactional()
+  {
+    failingOp(true);
+  }
+
+  /**
+   * a map failing once its unique value is reserved
+   */
+  private static Player broken(String name)
+  {
+    Player p = new Player(name, 1, 1);
+    p.setProps(new HashMap<String, String>()
+    {
+      @Override
+      public Set<Map.Entry<String, String>> entrySet()
+      {
+        throw new IllegalStateException("broken");
+      }
+    });
+    return p;
+  }
+
+  @Test
+  public void failedTransactionGivesBackEveryUnique()
+  {
+    Rojo rojo = new Rojo(je);
+    Player a = new Player("a", 1, 1);
+    Player c = new Player("c", 1, 1);
+    try
+    {
+      rojo.batch().save(a).save(broken("b")).save(c).commit(true);
+      fail("a broken map");
+    } catch (RepositoryError e)
+    {
+    }
+    assertNull(a.getId());
+    assertNull(c.getId());
+    assertFalse(je.exists("player:n:a:004unique_key"));
+    assertFalse(je.exists("player:n:b:004unique_key"));
+    assertFalse(je.exists("player:n:c:004unique_key"));
+    assertEquals(0, rojo.allSize(Player.class));
+    assertTrue(rojo.batch().save(a).save(new Player("b", 1, 1)).save(c).commit(true).isEmpty());
+    assertEquals(3, rojo.allSize(Player.class));
+  }
+
+  @Test
+  public void failedPipelineGivesBackTheUniquesNotSent()
+  {
+    Rojo rojo = new Rojo(je);
+    Player a = new Player("a", 1, 1);
+    Player c = new Player("c", 1, 1);
+    try
+    {
+      rojo.batch().save(a).save(broken("b")).save(c).commit();
+      fail("a broken map");
+    } catch (RepositoryError e)
+    {
+    }
+    assertEquals("a", rojo.get(Player.class, a.getId()).getName());//sent before the failure
+    assertEquals(a.getId(), rojo.unique(Player.class, "a").getId());
+    assertNull(c.getId());
+    assertFalse(je.exists("player:n:c:004unique_key"));
+    assertNotNull(rojo.saveAndFlush(c));
+  }
+
+  @Test
+  public void unknownPropertyRefusedFirst()
+  {
+    Rojo rojo = new Rojo(je);
+    Player b = rojo.get(Player.class, rojo.saveAndFlush(new Player("b", 1, 1)));
+    Player a = new Player("a", 1, 1);
+    try
+    {
+      rojo.batch().save(a).update(b, "nosuch").commit();
+      fail("an unknown property");
+    } catch (RepositoryError e)
+    {
+    }
+    assertNull(a.getId());
+    assertFalse(je.exists("player:n:a:004unique_key"));
+  }
+
+  @Test
+  public void releaseKeepsOtherReservations()
+  {
+    Rojo rojo = new Rojo(je);
+    String other = rojo.saveAndFlush(new Player("x", 1, 1));
+    Player x = new Player("x", 1, 1);
+    try
+    {
+      rojo.batch().save(x).save(broken("y")).commit(true);
+      fail("an update without id");
+    } catch (RepositoryError e)
+    {
+    }
+    assertEquals(other, rojo.unique(Player.class, "x").getId());
+    assertNull(x.getId());
+  }
+}
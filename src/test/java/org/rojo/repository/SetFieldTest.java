@@ -0,0 +1,144 @@
+/**
+ * set properties stored as redis sets
+ */
+package org.rojo.repository;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import org.junit.Test;
+import org.rojo.annotations.Entity;
+import org.rojo.annotations.Id;
+import org.rojo.annotations.Value;
+import redis.clients.jedis.Jedis;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author beykery
+ */
+public class SetFieldTest extends RedisTest
+{
+
+  @Test
+  public void storedAsASet()
+  {
+    Rojo rojo = new Rojo(je);
+    String id = rojo.saveAndFlush(RojoTest.player("ann", 1, 1));
+    assertEquals("set", je.type("player:" + id + ":tg"));
+    Player p = rojo.get(Player.class, id);
+    assertTrue(rojo.append(p, "tags", "b", "c", "c"));
+    rojo.flush();
+    assertEquals(new HashSet<>(Arrays.asList("a", "b", "c")), je.smembers("player:" + id + ":tg"));
+    assertTrue(rojo.contains(Player.class, id, "tags", "c"));
+    assertTrue(rojo.removeElement(p, "tags", "a"));
+    assertFalse(rojo.contains(Player.class, id, "tags", "a"));
+    assertEquals(new HashSet<>(Arrays.asList("b", "c")), p.getTags());
+  }
+
+  @Test
+  public void legacyListTurnedIntoASet()
+  {
+    Rojo rojo = new Rojo(je);
+    String id = rojo.saveAndFlush(RojoTest.player("bob", 1, 1));
+    String key = "player:" + id + ":tg";
+    je.del(key);
+    je.rpush(key, "old", "a", "old");
+    Player p = rojo.get(Player.class, id);
+    assertEquals(new HashSet<>(Arrays.asList("old", "a")), p.getTags());
+    assertTrue(rojo.append(p, "tags", "new"));
+    rojo.flush();
+    assertEquals("set", je.type(key));
+    assertEquals(new HashSet<>(Arrays.asList("old", "a", "new")), je.smembers(key));
+    je.del(key);
+    je.rpush(key, "old", "a");
+    assertTrue(rojo.removeElement(p, "tags", "a"));
+    rojo.flush();
+    assertEquals("set", je.type(key));
+    assertEquals(new HashSet<>(Arrays.asList("old")), je.smembers(key));
+  }
+
+  @Test
+  public void manyMembers()
+  {
+    Rojo rojo = new Rojo(je);
+    String id = rojo.saveAndFlush(RojoTest.player("cid", 1, 1));
+    String key = "player:" + id + ":tg";
+    String[] old = new String[2500];
+    for (int i = 0; i < old.length; i++)
+    {
+      old[i] = "o" + i;
+    }
+    je.del(key);
+    je.rpush(key, old);
+    Object[] added = new Object[2500];
+    for (int i = 0; i < added.length; i++)
+    {
+      added[i] = "n" + i;
+    }
+    Player p = rojo.get(Player.class, id);
+    assertTrue(rojo.append(p, "tags", added));
+    rojo.flush();
+    assertEquals(5000, (long) je.scard(key));
+    Set<String> tags = rojo.get(Player.class, id).getTags();
+    assertEquals(5000, tags.size());
+  }
+
+  @Entity(table = "oset")
+  public static class Ordered
+  {
+
+    @Id(auto = true)
+    String id;
+    @Value(column = "s", ordered = true)
+    Set<String> steps;
+  }
+
+  @Test
+  public void queuedUntilFlush()
+  {
+    Rojo rojo = new Rojo(je);
+    String id = rojo.saveAndFlush(RojoTest.player("dan", 1, 1));
+    Player p = rojo.get(Player.class, id);
+    Jedis other = new Jedis("localhost", port);
+    try
+    {
+      other.scriptFlush();//the set script is sent again with EVAL
+      rojo.append(p, "notes", "n");
+      rojo.append(p, "tags", "t");
+      rojo.removeElement(p, "tags", "a");
+      rojo.putEntry(p, "props", "e", "1");
+      assertFalse(other.sismember("player:" + id + ":tg", "t"));
+      assertTrue(other.sismember("player:" + id + ":tg", "a"));
+      assertEquals(3, (long) other.llen("player:" + id + ":nt"));
+      rojo.flush();
+      assertEquals(new HashSet<>(Arrays.asList("b", "t")), other.smembers("player:" + id + ":tg"));
+      assertEquals(4, (long) other.llen("player:" + id + ":nt"));
+      assertEquals("1", other.hget("player:" + id + ":p", "e"));
+    } finally
+    {
+      other.close();
+    }
+  }
+
+  @Test
+  public void orderedKeepsInsertionOrder()
+  {
+    Rojo rojo = new Rojo(je);
+    Ordered o = new Ordered();
+    o.steps = new LinkedHashSet<>(Arrays.asList("z", "a", "m"));
+    String id = rojo.saveAndFlush(o);
+    assertEquals("list", je.type("oset:" + id + ":s"));
+    Ordered read = rojo.get(Ordered.class, id);
+    assertEquals(Arrays.asList("z", "a", "m"), new ArrayList<>(read.steps));
+    assertTrue(rojo.append(read, "steps", "b", "a"));
+    rojo.flush();
+    assertEquals(Arrays.asList("z", "a", "m", "b"), je.lrange("oset:" + id + ":s", 0, -1));
+    assertEquals(Arrays.asList("z", "a", "m", "b"), new ArrayList<>(rojo.get(Ordered.class, id).steps));
+    assertTrue(rojo.contains(Ordered.class, id, "steps", "b"));
+    Rojo.setScriptRead(true);
+    assertEquals(Arrays.asList("z", "a", "m", "b"), new ArrayList<>(rojo.get(Ordered.class, id).steps));
+  }
+}
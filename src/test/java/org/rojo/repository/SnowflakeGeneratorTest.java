@@ -0,0 +1,136 @@
+/**
+ * snowflake ids
+ */
+package org.rojo.repository;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * The generators run on a clock of the test (no redis).
+ *
+ * @author beykery
+ */
+public class SnowflakeGeneratorTest
+{
+
+  private static final long T = SnowflakeGenerator.EPOCH + 1000000L;
+
+  /**
+   * a generator reading its clock from the test
+   */
+  private static class Clocked extends SnowflakeGenerator
+  {
+
+    long time = T;
+    long reads;
+    long tickAt = Long.MAX_VALUE;//the read the clock goes to the next millisecond
+
+    Clocked(long node)
+    {
+      super(node);
+    }
+
+    @Override
+    long now()
+    {
+      return ++reads >= tickAt ? time + 1 : time;
+    }
+  }
+
+  private static long millis(long id)
+  {
+    return (id >>> 22) + SnowflakeGenerator.EPOCH;
+  }
+
+  private static long sequence(long id)
+  {
+    return id & 4095;
+  }
+
+  @Test
+  public void increasingInOneMillisecond()
+  {
+    Clocked g = new Clocked(7);
+    long prev = g.next();
+    assertEquals(T, millis(prev));
+    assertEquals(0, sequence(prev));
+    assertEquals(7, (prev >>> 12) & 1023);
+    for (int i = 1; i < 4096; i++)
+    {
+      long id = g.next();
+      assertTrue(id > prev);
+      assertEquals(T, millis(id));
+      assertEquals(i, sequence(id));
+      assertTrue(SnowflakeGenerator.format(id).compareTo(SnowflakeGenerator.format(prev)) > 0);
+      prev = id;
+    }
+    assertEquals(T, SnowflakeGenerator.time(SnowflakeGenerator.format(prev)));
+  }
+
+  @Test
+  public void sequenceOverflowWaitsTheNextTick()
+  {
+    Clocked g = new Clocked(1);
+    for (int i = 0; i < 4096; i++)
+    {
+      g.next();
+    }
+    g.tickAt = g.reads + 5;//the clock stays for 4 more reads
+    long id = g.next();
+    assertEquals(T + 1, millis(id));
+    assertEquals(0, sequence(id));
+    assertEquals(g.tickAt, g.reads);//waited until the tick
+  }
+
+  @Test
+  public void clockBackGoesOnFromTheLastId()
+  {
+    Clocked g = new Clocked(2);
+    long prev = g.next();
+    g.time = T - 5;
+    long reads = g.reads;
+    for (int i = 0; i < 5000; i++)//over a millisecond of sequence,no stall
+    {
+      long id = g.next();
+      assertTrue(id > prev);
+      prev = id;
+    }
+    assertEquals(reads + 5000, g.reads);
+    assertEquals(T + 1, millis(prev));//borrowed the next millisecond
+    g.time = T + 10;
+    long id = g.next();
+    assertEquals(T + 10, millis(id));
+    assertEquals(0, sequence(id));
+  }
+
+  @Test
+  public void nodesApart()
+  {
+    Clocked a = new Clocked(1);
+    Clocked b = new Clocked(2);
+    assertNotEquals(a.next(), b.next());
+    try
+    {
+      new SnowflakeGenerator(1024);
+      fail("node over 10 bits");
+    } catch (IllegalArgumentException e)
+    {
+    }
+  }
+
+  @Test
+  public void missingNodeRefused()
+  {
+    assertNull(System.getProperty("rojo.node.id"));
+    Rojo.property("rojo.batch.size", 1, 1);//the repository configured
+    assertNull(IdGenerator.getGenerator("snowflakeGenerator"));
+    try
+    {
+      new SnowflakeGenerator();
+      fail("no rojo.node.id");
+    } catch (IllegalStateException e)
+    {
+    }
+  }
+}
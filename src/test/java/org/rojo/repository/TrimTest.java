@@ -0,0 +1,127 @@
+/**
+ * capped sorted properties
+ */
+package org.rojo.repository;
+
+import java.util.Set;
+import org.junit.Test;
+import redis.clients.jedis.Pipeline;
+import static org.junit.Assert.*;
+
+/**
+ * Player.top keeps the 3 biggest values.
+ *
+ * @author beykery
+ */
+public class TrimTest extends RedisTest
+{
+
+  private static final String TOP = "player:top:003sorted_key";
+
+  private static Player player(int i)
+  {
+    Player p = new Player("p" + i, 0, 1);
+    p.setTop(i);
+    return p;
+  }
+
+  @Test
+  public void trimmedOnEveryWrite()
+  {
+    Rojo rojo = new Rojo(je);
+    for (int i = 0; i < 10; i++)
+    {
+      rojo.saveAndFlush(player(i));
+      assertTrue(je.zcard(TOP) <= 3);
+    }
+    assertEquals(3, (long) je.zcard(TOP));
+  }
+
+  @Test
+  public void boundedBySlack()
+  {
+    Rojo.setTrimSlack(4);
+    Rojo rojo = new Rojo(je);
+    long most = 0;
+    for (int i = 0; i < 30; i++)
+    {
+      rojo.saveAndFlush(player(i));
+      most = Math.max(most, je.zcard(TOP));
+    }
+    assertEquals(7, most);
+    Set<Player> best = rojo.range(Player.class, "top", 0, -1);
+    assertEquals(3, best.size());
+    assertEquals(29, best.iterator().next().getTop());
+    assertEquals(3, rojo.scoreRange(Player.class, "top", 100, 0).size());
+    rojo.trim(Player.class);
+    rojo.flush();
+    assertEquals(3, (long) je.zcard(TOP));
+  }
+
+  @Test
+  public void boundSharedWithOtherWriters()
+  {
+    Rojo.setTrimSlack(100);
+    Rojo rojo = new Rojo(je);
+    Pipeline p = je.pipelined();
+    for (int i = 0; i < 150; i++)
+    {
+      p.zadd(TOP, i, "other" + i);//another process writing
+    }
+    p.sync();
+    rojo.saveAndFlush(player(1000));
+    assertEquals(3, (long) je.zcard(TOP));
+    assertNotNull(je.zscore(TOP, rojo.unique(Player.class, "p1000").getId()));
+  }
+
+  @Test
+  public void everyWritePath()
+  {
+    Rojo.setTrimSlack(2);
+    Rojo rojo = new Rojo(je);
+    String id = rojo.saveAndFlush(player(0));
+    Player p = rojo.get(Player.class, id);
+    for (int i = 1; i <= 20; i++)
+    {
+      je.zadd(TOP, -i, "low" + i);
+      p.setTop(i);
+      rojo.updateAndFlush(p, "top");
+      assertTrue(je.zcard(TOP) <= 5);
+    }
+    for (int i = 1; i <= 20; i++)
+    {
+      je.zadd(TOP, -i, "more" + i);
+      rojo.incr(Player.class, id, "top", 1);
+      assertTrue(je.zcard(TOP) <= 5);
+    }
+    Rojo.setScriptSave(true);
+    for (int i = 0; i < 20; i++)
+    {
+      rojo.saveAndFlush(player(100 + i));
+      assertTrue(je.zcard(TOP) <= 5);
+    }
+    assertEquals(40, rojo.get(Player.class, id).getTop());
+  }
+
+  @Test
+  public void capScriptSentByItsSha()
+  {
+    Rojo.setTrimSlack(4);
+    Rojo rojo = new Rojo(je);
+    je.scriptFlush();
+    long evals = calls("eval");
+    long shas = calls("evalsha");
+    for (int i = 0; i < 30; i++)
+    {
+      rojo.saveAndFlush(player(i));
+      assertTrue(je.zcard(TOP) <= 7);
+      if (i == 15)
+      {
+        je.scriptFlush();
+      }
+    }
+    assertTrue(calls("evalsha") - shas >= 28);//the ones answered NOSCRIPT are not counted
+    assertTrue(calls("eval") - evals <= 4);//once per script flush (redis counts an EVALSHA it replicates as EVAL too)
+    assertEquals(29, rojo.range(Player.class, "top", 0, 0).iterator().next().getTop());
+  }
+}
@@ -0,0 +1,48 @@
+/**
+ * bloom filter
+ */
+package org.rojo.util;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author beykery
+ */
+public class BloomFilterTest
+{
+
+  @Test
+  public void noFalseNegative()
+  {
+    BloomFilter bf = new BloomFilter(10000, 0.01);
+    for (int i = 0; i < 10000; i++)
+    {
+      bf.put("id" + i);
+    }
+    for (int i = 0; i < 10000; i++)
+    {
+      assertTrue(bf.mightContain("id" + i));
+    }
+  }
+
+  @Test
+  public void falsePositiveRate()
+  {
+    BloomFilter bf = new BloomFilter(10000, 0.01);
+    for (int i = 0; i < 10000; i++)
+    {
+      bf.put("id" + i);
+    }
+    int positives = 0;
+    for (int i = 0; i < 100000; i++)
+    {
+      if (bf.mightContain("other" + i))
+      {
+        positives++;
+      }
+    }
+    assertTrue("false positives " + positives, positives < 2000);
+  }
+}
@@ -0,0 +1,66 @@
+/**
+ * negative cache
+ */
+package org.rojo.util;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author beykery
+ */
+public class NegativeCacheTest
+{
+
+  @Test
+  public void putAndEvict()
+  {
+    NegativeCache nc = new NegativeCache(10, 60000);
+    assertFalse(nc.contains(String.class, "1"));
+    nc.put(String.class, "1");
+    assertTrue(nc.contains(String.class, "1"));
+    assertFalse(nc.contains(Integer.class, "1"));//per class
+    nc.evict(String.class, "1");
+    assertFalse(nc.contains(String.class, "1"));
+    assertEquals(0, nc.stats().getSize());
+  }
+
+  @Test
+  public void expiredAfterTtl() throws Exception
+  {
+    NegativeCache nc = new NegativeCache(10, 50);
+    nc.put(String.class, "1");
+    assertTrue(nc.contains(String.class, "1"));
+    Thread.sleep(100);
+    assertFalse(nc.contains(String.class, "1"));
+    assertEquals(0, nc.stats().getSize());
+    nc.put(String.class, "1");//remembered again,a new ttl
+    assertTrue(nc.contains(String.class, "1"));
+  }
+
+  @Test
+  public void leastRecentlyUsedGoFirst()
+  {
+    NegativeCache nc = new NegativeCache(3, 60000);
+    nc.put(String.class, "1");
+    nc.put(String.class, "2");
+    nc.put(String.class, "3");
+    assertTrue(nc.contains(String.class, "1"));//used,the least recent is 2
+    nc.put(String.class, "4");
+    assertFalse(nc.contains(String.class, "2"));
+    assertTrue(nc.contains(String.class, "1"));
+    assertTrue(nc.contains(String.class, "3"));
+    assertTrue(nc.contains(String.class, "4"));
+    nc.put(String.class, "3");//put again,no growth
+    nc.put(String.class, "5");
+    assertFalse(nc.contains(String.class, "1"));
+    assertEquals(3, nc.stats().getSize());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void sizeMustBePositive()
+  {
+    new NegativeCache(0, 1000);
+  }
+}
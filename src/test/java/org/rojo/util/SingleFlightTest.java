@@ -0,0 +1,121 @@
+/**
+ * single flight
+ */
+package org.rojo.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author beykery
+ */
+public class SingleFlightTest
+{
+
+  private static final int THREADS = 8;
+
+  /**
+   * THREADS concurrent runs of key,the loader waits for release
+   *
+   * @param flights
+   * @param loader
+   * @param release
+   * @return
+   * @throws Exception
+   */
+  private static List<Future<Object>> concurrent(final SingleFlight<String, Object> flights, final Callable<Object> loader, CountDownLatch release) throws Exception
+  {
+    ExecutorService threads = Executors.newFixedThreadPool(THREADS);
+    final CountDownLatch arrived = new CountDownLatch(THREADS);
+    List<Future<Object>> fs = new ArrayList<>();
+    for (int i = 0; i < THREADS; i++)
+    {
+      fs.add(threads.submit(new Callable<Object>()
+      {
+        @Override
+        public Object call() throws Exception
+        {
+          arrived.countDown();
+          return flights.run("k", loader);
+        }
+      }));
+    }
+    assertTrue(arrived.await(5, TimeUnit.SECONDS));
+    Thread.sleep(100);//the waiters join the flight
+    release.countDown();
+    threads.shutdown();
+    assertTrue(threads.awaitTermination(5, TimeUnit.SECONDS));
+    return fs;
+  }
+
+  @Test
+  public void oneLoadForConcurrentCallers() throws Exception
+  {
+    final SingleFlight<String, Object> flights = new SingleFlight<>();
+    final AtomicInteger loads = new AtomicInteger();
+    final CountDownLatch release = new CountDownLatch(1);
+    final Object value = new Object();
+    List<Future<Object>> fs = concurrent(flights, new Callable<Object>()
+    {
+      @Override
+      public Object call() throws Exception
+      {
+        loads.incrementAndGet();
+        release.await();
+        return value;
+      }
+    }, release);
+    for (Future<Object> f : fs)
+    {
+      assertSame(value, f.get());
+    }
+    assertEquals(1, loads.get());
+    assertEquals(0, flights.size());
+  }
+
+  @Test
+  public void failureGoesToEveryCaller() throws Exception
+  {
+    final SingleFlight<String, Object> flights = new SingleFlight<>();
+    final CountDownLatch release = new CountDownLatch(1);
+    List<Future<Object>> fs = concurrent(flights, new Callable<Object>()
+    {
+      @Override
+      public Object call() throws Exception
+      {
+        release.await();
+        throw new IllegalStateException("down");
+      }
+    }, release);
+    for (Future<Object> f : fs)
+    {
+      try
+      {
+        f.get();
+        fail();
+      } catch (Exception e)
+      {
+        assertTrue(e.getCause() instanceof RuntimeException);
+      }
+    }
+    assertEquals(0, flights.size());
+    assertEquals("up", flights.run("k", new Callable<Object>()
+    {
+      @Override
+      public Object call() throws Exception
+      {
+        return "up";
+      }
+    }));
+  }
+}